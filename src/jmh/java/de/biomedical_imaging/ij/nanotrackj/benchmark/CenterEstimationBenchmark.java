@@ -0,0 +1,91 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package de.biomedical_imaging.ij.nanotrackj.benchmark;
+
+import ij.process.FloatProcessor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biomedical_imaging.ij.nanotrackj.NanoTrackUtil;
+
+/**
+ * Benchmarks the center estimation of all spots of a frame. The particle density is swept by the 
+ * number of spots in a 512 x 512 pixel frame.
+ * @author Thorsten Wagner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CenterEstimationBenchmark {
+	
+	@Param({"10", "100", "500"})
+	public int spots;
+	
+	@Param({"1.5", "4"})
+	public double spotSigma;
+	
+	private FloatProcessor frame;
+	private double[][] centers;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		Random r = new Random(1);
+		centers = new double[spots][2];
+		for(int i = 0; i < spots; i++){
+			//Keep a margin, so that the fit window stays inside the image
+			centers[i][0] = 32 + r.nextDouble()*448;
+			centers[i][1] = 32 + r.nextDouble()*448;
+		}
+		frame = SyntheticData.simulateSpots(512, centers, spotSigma, 2);
+	}
+	
+	@Benchmark
+	public double fittedParameter(){
+		double sum = 0;
+		for(int i = 0; i < centers.length; i++){
+			float[] p = NanoTrackUtil.getFittedParameter(frame, Math.round(centers[i][0]), Math.round(centers[i][1]));
+			sum += p[0] + p[1];
+		}
+		return sum;
+	}
+
+}
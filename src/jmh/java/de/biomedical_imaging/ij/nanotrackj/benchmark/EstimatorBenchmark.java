@@ -0,0 +1,102 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package de.biomedical_imaging.ij.nanotrackj.benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biomedical_imaging.ij.nanotrackj.CovarianceEstimator;
+import de.biomedical_imaging.ij.nanotrackj.RegressionEstimator;
+import de.biomedical_imaging.ij.nanotrackj.Track;
+
+/**
+ * Benchmarks the diffusion coefficient estimators on a batch of synthetic tracks.
+ * @author Thorsten Wagner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EstimatorBenchmark {
+	
+	@Param({"10", "100", "1000"})
+	public int trackLength;
+	
+	@Param({"100", "1000"})
+	public int numberOfTracks;
+	
+	private ArrayList<Track> tracks;
+	private CovarianceEstimator covariance;
+	private RegressionEstimator regression;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		Random r = new Random(1);
+		tracks = new ArrayList<Track>();
+		for(int i = 0; i < numberOfTracks; i++){
+			tracks.add(SyntheticData.simulateTrack(trackLength, 1.5, r));
+		}
+		covariance = new CovarianceEstimator();
+		covariance.setFramesPerSecond(SyntheticData.FRAMERATE);
+		regression = new RegressionEstimator();
+		regression.setFramesPerSecond(SyntheticData.FRAMERATE);
+		regression.setTimeLags(1, 5);
+	}
+	
+	@Benchmark
+	public double covariance(){
+		double sum = 0;
+		for(int i = 0; i < tracks.size(); i++){
+			sum += covariance.getDiffusionCoefficient(tracks.get(i), 0.1, -0.05);
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	public double regression(){
+		double sum = 0;
+		for(int i = 0; i < tracks.size(); i++){
+			sum += regression.getDiffusionCoefficient(tracks.get(i), 0.1, -0.05);
+		}
+		return sum;
+	}
+
+}
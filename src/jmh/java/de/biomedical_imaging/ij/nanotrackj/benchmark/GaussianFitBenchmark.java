@@ -0,0 +1,103 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package de.biomedical_imaging.ij.nanotrackj.benchmark;
+
+import ij.process.FloatProcessor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biomedical_imaging.ij.nanotrackj.GaussianFitter;
+
+/**
+ * Benchmarks the gaussian fit of all spots of a 512 x 512 pixel frame, reported as fits per second.
+ * @author Thorsten Wagner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GaussianFitBenchmark {
+	
+	private static final int SPOTS = 500;
+	
+	@Param({"1.5", "3"})
+	public double spotSigma;
+	
+	@Param({"1", "4"})
+	public int parallelism;
+	
+	private FloatProcessor frame;
+	private int[] x;
+	private int[] y;
+	private GaussianFitter fitter;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		Random r = new Random(1);
+		double[][] centers = new double[SPOTS][2];
+		x = new int[SPOTS];
+		y = new int[SPOTS];
+		for(int i = 0; i < SPOTS; i++){
+			//Keep a margin, so that the fit window stays inside the image
+			centers[i][0] = 32 + r.nextDouble()*448;
+			centers[i][1] = 32 + r.nextDouble()*448;
+			x[i] = (int)Math.round(centers[i][0]);
+			y[i] = (int)Math.round(centers[i][1]);
+		}
+		frame = SyntheticData.simulateSpots(512, centers, spotSigma, 2);
+		fitter = new GaussianFitter((int)Math.ceil(3*spotSigma));
+		fitter.setParallelism(parallelism);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		fitter.shutdown();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(SPOTS)
+	public double[][] fit(){
+		return fitter.fit(frame, x, y, SPOTS);
+	}
+
+}
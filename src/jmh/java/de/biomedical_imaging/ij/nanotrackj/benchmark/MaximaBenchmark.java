@@ -0,0 +1,88 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package de.biomedical_imaging.ij.nanotrackj.benchmark;
+
+import ij.plugin.filter.MaximumFinder;
+import ij.process.ByteProcessor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biomedical_imaging.ij.nanotrackj.MaximaDetector;
+
+/**
+ * Compares the MaximaDetector with the IJ MaximumFinder on frames like the output of the simulation scripts 
+ * (white 5x5 px ovals on a black 800 x 600 px frame).
+ * @author Thorsten Wagner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MaximaBenchmark {
+	
+	@Param({"20", "400"})
+	public int spots;
+	
+	private ByteProcessor frame;
+	private MaximaDetector detector;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		Random r = new Random(1);
+		frame = new ByteProcessor(800, 600);
+		frame.setColor(255);
+		for(int i = 0; i < spots; i++){
+			frame.fillOval((int)(800*r.nextDouble()), (int)(600*r.nextDouble()), 5, 5);
+		}
+		detector = new MaximaDetector(1, 6);
+	}
+	
+	@Benchmark
+	public int maximumFinder(){
+		return new MaximumFinder().getMaxima(frame, 15, true).npoints;
+	}
+	
+	@Benchmark
+	public int maximaDetector(){
+		return detector.getMaxima(frame, 15, true).npoints;
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package de.biomedical_imaging.ij.nanotrackj.benchmark;
+
+import ij.blob.Blob;
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import de.biomedical_imaging.ij.nanotrackj.CenterBlob;
+import de.biomedical_imaging.ij.nanotrackj.Step;
+import de.biomedical_imaging.ij.nanotrackj.Track;
+
+/**
+ * Generates the synthetic inputs of the benchmarks. All positions are in pixels.
+ * @author Thorsten Wagner
+ */
+public class SyntheticData {
+	
+	private static final double kB = 1.3806488* Math.pow(10, -19);  // [kg cm^2 s^-2 K^-1]
+	public static final double TEMP = 22 + 273.15;					// [K]
+	public static final double VISK = 0.9548 * Math.pow(10, -5);	// [kg cm^-1 s^-1]
+	public static final double FRAMERATE = 30;						// [1/s]
+	
+	/**
+	 * Simulates freely diffusing particles with a constant drift in a square field of view. 
+	 * Particles which leave the field re-enter at the opposite side.
+	 * @param particles Number of particles per frame
+	 * @param frames Number of frames
+	 * @param fieldSize Width and height of the field of view
+	 * @param sigma Standard deviation of a single step per dimension
+	 * @param seed Seed of the random number generator
+	 * @return [f] = Detected blobs in frame f+1
+	 */
+	public static ArrayList<ArrayList<Blob>> simulateFrames(int particles, int frames, double fieldSize, double sigma, long seed){
+		Random r = new Random(seed);
+		double[] x = new double[particles];
+		double[] y = new double[particles];
+		for(int i = 0; i < particles; i++){
+			x[i] = r.nextDouble()*fieldSize;
+			y[i] = r.nextDouble()*fieldSize;
+		}
+		ArrayList<ArrayList<Blob>> blobsPerFrame = new ArrayList<ArrayList<Blob>>();
+		for(int f = 0; f < frames; f++){
+			ArrayList<Blob> blobs = new ArrayList<Blob>();
+			for(int i = 0; i < particles; i++){
+				x[i] = wrap(x[i] + sigma*r.nextGaussian() + 0.1, fieldSize);
+				y[i] = wrap(y[i] + sigma*r.nextGaussian() - 0.05, fieldSize);
+				blobs.add(new CenterBlob((float)x[i], (float)y[i], 0));
+			}
+			blobsPerFrame.add(blobs);
+		}
+		return blobsPerFrame;
+	}
+	
+	private static double wrap(double v, double fieldSize){
+		if(v < 0){
+			return v + fieldSize;
+		}
+		if(v >= fieldSize){
+			return v - fieldSize;
+		}
+		return v;
+	}
+	
+	/**
+	 * Simulates a single track of a freely diffusing particle with drift.
+	 * @param trackLength Number of steps
+	 * @param sigma Standard deviation of a single step per dimension
+	 * @param r Random number generator
+	 */
+	public static Track simulateTrack(int trackLength, double sigma, Random r){
+		Track t = new Track(1);
+		double x = 0;
+		double y = 0;
+		for(int i = 0; i < trackLength; i++){
+			x += sigma*r.nextGaussian() + 0.1;
+			y += sigma*r.nextGaussian() - 0.05;
+			t.add(new Step(new CenterBlob((float)x, (float)y, 0), i+1));
+		}
+		return t;
+	}
+	
+	/**
+	 * Simulates the input of Walker's method for a bimodal suspension (1:1 mixture).
+	 * @return [i][0] = MSD in 10^-10 cm^2, [i][1] = Tracklength
+	 */
+	public static double[][] simulateWalkerData(double diameterA, double diameterB, int numberOfTracks, int trackLength, long seed){
+		Random r = new Random(seed);
+		double[][] data = new double[numberOfTracks][2];
+		for(int i = 0; i < numberOfTracks; i++){
+			double diameterInNm = (i%2==0) ? diameterA : diameterB;
+			double D = kB*TEMP/(3*Math.PI*VISK*diameterInNm*Math.pow(10, -7)); // [cm^2 / s]
+			double theta = 4*D/FRAMERATE;
+			double msd = 0;
+			for(int j = 0; j < trackLength; j++){
+				msd += -theta*Math.log(1-r.nextDouble());
+			}
+			data[i][0] = msd/trackLength * Math.pow(10, 10);
+			data[i][1] = trackLength;
+		}
+		return data;
+	}
+	
+	/**
+	 * Renders gaussian spots with poisson-like noise on a dark background.
+	 * @param size Width and height of the image
+	 * @param centers [i][0] = x, [i][1] = y of the i-th spot
+	 * @param sigma Standard deviation of the spots
+	 */
+	public static FloatProcessor simulateSpots(int size, double[][] centers, double sigma, long seed){
+		Random r = new Random(seed);
+		float[] pixels = new float[size*size];
+		for(int y = 0; y < size; y++){
+			for(int x = 0; x < size; x++){
+				double v = 10;
+				for(int i = 0; i < centers.length; i++){
+					double dx = x - centers[i][0];
+					double dy = y - centers[i][1];
+					v += 200*Math.exp(-(dx*dx+dy*dy)/(2*sigma*sigma));
+				}
+				pixels[y*size+x] = (float)(v + Math.sqrt(v)*r.nextGaussian());
+			}
+		}
+		return new FloatProcessor(size, size, pixels);
+	}
+}
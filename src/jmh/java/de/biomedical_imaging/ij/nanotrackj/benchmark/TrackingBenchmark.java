@@ -0,0 +1,113 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package de.biomedical_imaging.ij.nanotrackj.benchmark;
+
+import ij.blob.Blob;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biomedical_imaging.ij.nanotrackj.AllTracks;
+import de.biomedical_imaging.ij.nanotrackj.TrackSynthesizer;
+
+/**
+ * Benchmarks the linking of detections to tracks and the drift estimation over all tracks. 
+ * The particle density is swept by the number of particles in a 512 x 512 pixel field of view, 
+ * the track length by the number of frames. At 20000 particles, the candidate pairs of the LAP linker 
+ * (about six per track) join into one large connected component.
+ * @author Thorsten Wagner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrackingBenchmark {
+	
+	@Param({"100", "500", "2000", "20000"})
+	public int particles;
+	
+	@Param({"50", "200"})
+	public int frames;
+	
+	@Param({"0", "1"})
+	public int linker; // TrackSynthesizer.LINKER_UNAMBIGUOUS or LINKER_LAP
+	
+	private ArrayList<ArrayList<Blob>> blobsPerFrame;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		blobsPerFrame = SyntheticData.simulateFrames(particles, frames, 512, 1.5, 1);
+	}
+	
+	/**
+	 * Tracks of a complete linking run, the input of the drift benchmark. They are built once per trial, 
+	 * thus the drift benchmark does not depend on the state left by other benchmarks.
+	 */
+	@State(Scope.Benchmark)
+	public static class LinkedTracks {
+		
+		@Setup(Level.Trial)
+		public void setup(TrackingBenchmark benchmark){
+			benchmark.link();
+		}
+	}
+	
+	/**
+	 * Links all frames, i.e. a complete tracking run without detection.
+	 */
+	@Benchmark
+	public int link(){
+		AllTracks.getInstance().reset();
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5, linker);
+		for(int f = 0; f < blobsPerFrame.size(); f++){
+			synthesizer.updateTracks(blobsPerFrame.get(f), f+1);
+		}
+		return AllTracks.getInstance().size() + AllTracks.getInstance().getFinishedTracks().size();
+	}
+	
+	/**
+	 * Estimates the drift over the open and finished tracks of a complete linking run.
+	 */
+	@Benchmark
+	public double[] drift(LinkedTracks tracks){
+		return AllTracks.getInstance().getDrift();
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package de.biomedical_imaging.ij.nanotrackj.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biomedical_imaging.ij.nanotrackj.WalkerMethodEstimator;
+
+/**
+ * Benchmarks the size distribution estimation by Walker's method for a bimodal suspension 
+ * (100 nm and 200 nm). The estimator scales the input data, thus each invocation gets a fresh copy.
+ * @author Thorsten Wagner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WalkerBenchmark {
+	
+	@Param({"500", "2000", "10000"})
+	public int numberOfTracks;
+	
+	@Param({"10", "50"})
+	public int trackLength;
+	
+	@Param({"400", "1000"})
+	public int maxDiameter;
+	
+	private double[][] data;
+	private double[][] copy;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		data = SyntheticData.simulateWalkerData(100, 200, numberOfTracks, trackLength, 1);
+		copy = new double[data.length][];
+	}
+	
+	@Setup(Level.Invocation)
+	public void copyData(){
+		for(int i = 0; i < data.length; i++){
+			copy[i] = data[i].clone();
+		}
+	}
+	
+	/**
+	 * The settings which are used by NanoTrackJ
+	 */
+	@Benchmark
+	public double[][] estimate(){
+		WalkerMethodEstimator walker = new WalkerMethodEstimator(copy, SyntheticData.TEMP, SyntheticData.VISK, SyntheticData.FRAMERATE, maxDiameter);
+		walker.setAcceleration(true);
+		walker.setMultiResolution(true);
+		return walker.estimate();
+	}
+	
+	@Benchmark
+	public double[][] estimatePlainEM(){
+		WalkerMethodEstimator walker = new WalkerMethodEstimator(copy, SyntheticData.TEMP, SyntheticData.VISK, SyntheticData.FRAMERATE, maxDiameter);
+		return walker.estimate();
+	}
+
+}
@@ -1,9 +1,16 @@
 package de.biomedical_imaging.ij.msdanalyzer;
 
+import java.util.ArrayList;
+import java.util.TreeMap;
+
 import org.jfree.ui.RefineryUtilities;
 
 
+import de.biomedical_imaging.ij.nanotrackj.EnsembleMSD;
+import de.biomedical_imaging.ij.nanotrackj.NanoTrackJ_;
+import de.biomedical_imaging.ij.nanotrackj.Track;
 import de.biomedical_imaging.ij.plot.MSDPlotter;
+import ij.IJ;
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
 
@@ -18,16 +25,23 @@ public class MSDAnalyzer_ implements PlugIn {
 	public void run(String arg) {
 		// TODO Auto-generated method stub
 		GenericDialog gd = new GenericDialog("MSD Analyzer");
-		gd.addNumericField("Track ID", 1, 0);
+		gd.addNumericField("Track ID (0 = ensemble of all valid tracks)", 1, 0);
 		gd.addNumericField("Max. Timelag", 10, 0);
+		gd.addNumericField("Size class width [nm] (0 = no classes)", 0, 0);
 		gd.showDialog();
 		if(gd.wasCanceled()){
 			return;
 		}
 		trackid = (int)gd.getNextNumber();
 		int maxlag = (int)gd.getNextNumber();
+		double classWidth = gd.getNextNumber();
 	
-		MSDPlotter demo = new MSDPlotter("MSD Analyzer",trackid,maxlag);
+		MSDPlotter demo;
+		if(trackid == 0){
+			demo = createEnsemblePlotter(maxlag, classWidth);
+		}else{
+			demo = new MSDPlotter("MSD Analyzer",trackid,maxlag);
+		}
 	    demo.pack();
 	    RefineryUtilities.centerFrameOnScreen(demo);
 	    demo.setVisible(true);
@@ -48,5 +62,39 @@ public class MSDAnalyzer_ implements PlugIn {
 	    
 		
 	}
+	
+	/**
+	 * Computes the ensemble MSD of all valid tracks, optionally one curve per size class.
+	 * @param maxlag Max. timelag
+	 * @param classWidth Width of the size classes in nm, 0 for a single ensemble
+	 */
+	private MSDPlotter createEnsemblePlotter(int maxlag, double classWidth){
+		NanoTrackJ_ nta = NanoTrackJ_.getInstance();
+		ArrayList<Track> tracks = nta.getValidTracks();
+		int[] sizeClass = new int[tracks.size()];
+		String[] labels = new String[]{"All tracks"};
+		if(classWidth > 0){
+			//Only occupied size classes get a curve
+			TreeMap<Integer, Integer> classIndex = new TreeMap<Integer, Integer>();
+			for(int i = 0; i < tracks.size(); i++){
+				sizeClass[i] = (int)(nta.getDiameter(tracks.get(i))/classWidth);
+				classIndex.put(sizeClass[i], 0);
+			}
+			labels = new String[classIndex.size()];
+			int k = 0;
+			for(Integer c : classIndex.keySet()){
+				classIndex.put(c, k);
+				labels[k] = IJ.d2s(c*classWidth,0) + "-" + IJ.d2s((c+1)*classWidth,0) + " nm";
+				k++;
+			}
+			for(int i = 0; i < tracks.size(); i++){
+				sizeClass[i] = classIndex.get(sizeClass[i]);
+			}
+		}
+		EnsembleMSD[] curves = EnsembleMSD.compute(tracks, sizeClass, labels.length, nta.doCorrectDrift(), maxlag, 
+				Runtime.getRuntime().availableProcessors());
+		IJ.log("Ensemble MSD: " + tracks.size() + " tracks");
+		return new MSDPlotter("MSD Analyzer (Ensemble)", curves, labels, maxlag);
+	}
 
 }
@@ -24,38 +24,143 @@
 package de.biomedical_imaging.ij.nanotrackj;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
 
 @SuppressWarnings("serial")
 public class AllTracks extends ArrayList<Track>  {
 	
 	private static AllTracks openTracks; 		//Tracks which are "active"
 	private ArrayList<Track> finishedTracks; 	//Tracks which are finished
-	
+	private HashMap<Integer, Track> finishedTracksByID;
+	private TreeMap<Integer, ArrayList<Track>> tracksByEndFrame; //[f] = Open tracks which ended in frame f. Continued tracks are removed lazily.
+	private ArrayList<IFinishedTrackListener> listeners;
+	private double driftSumX = 0;				//Running sums over all tracks with more than 5 detections, see getDrift()
+	private double driftSumY = 0;
+	private double driftSumFrames = 0;
+	private DriftField driftField;				//Time-resolved drift
+	private boolean timeResolvedDrift = false;
 	
 	private AllTracks(){
 		finishedTracks = new ArrayList<Track>();
+		finishedTracksByID = new HashMap<Integer, Track>();
+		tracksByEndFrame = new TreeMap<Integer, ArrayList<Track>>();
+		listeners = new ArrayList<IFinishedTrackListener>();
+		driftField = new DriftField(25);
 	}
 	
 	/**
-	 * Method to finish a track by index
+	 * @param l Listener which is notified each time a track is finished
+	 */
+	public void addFinishedTrackListener(IFinishedTrackListener l){
+		listeners.add(l);
+	}
+	
+	public void removeFinishedTrackListener(IFinishedTrackListener l){
+		listeners.remove(l);
+	}
+	
+	private void fireTrackFinished(Track t){
+		for(int i = 0; i < listeners.size(); i++){
+			listeners.get(i).trackFinished(t);
+		}
+	}
+	
+	/**
+	 * Method to finish a track by index. The last open track takes the place of the finished track, 
+	 * thus the order of the open tracks is not preserved.
 	 * @param index Index of the track in openTracks ArrayList which has finished.
 	 */
 	public void finishTrack(int index){
-		Track trackToFinish = openTracks.remove(index);
-		finishedTracks.add(trackToFinish);
+		Track trackToFinish = removeOpenTrack(index);
+		addFinishedTrack(trackToFinish);
+		fireTrackFinished(trackToFinish);
 	}
 	
 	/**
 	 * Method to finish a track. The track specified by the parameter t will be removed from
-	 * the opentracks arraylist and added to finished tracks list.
+	 * the opentracks arraylist and added to finished tracks list. The track knows its index, 
+	 * thus the list is not searched.
 	 * @param t Track which is finished
 	 */
 	public void finishTrack(Track t){
-		int index = openTracks.indexOf(t);
-		if(index>=0){
-		Track trackToFinish = openTracks.remove(index);
-		finishedTracks.add(trackToFinish);
+		int index = t.getOpenIndex();
+		if(index>=0 && index<size() && get(index)==t){
+			finishTrack(index);
+		}
+	}
+	
+	/**
+	 * Finishes all open tracks whose last detection is before the frame. Only the tracks which ended in the 
+	 * expired frames are visited, thus the costs do not depend on the number of open tracks.
+	 * @param frameIndex Frame index
+	 */
+	public void finishTracksEndedBefore(int frameIndex){
+		ArrayList<Track> tracksToFinish = new ArrayList<Track>();
+		while(!tracksByEndFrame.isEmpty() && tracksByEndFrame.firstKey() < frameIndex){
+			int endFrame = tracksByEndFrame.firstKey();
+			ArrayList<Track> bucket = tracksByEndFrame.remove(endFrame);
+			for(int i = 0; i < bucket.size(); i++){
+				Track t = bucket.get(i);
+				if(t.getOpenIndex()>=0 && t.getEndFrameIndex()==endFrame){
+					removeOpenTrack(t.getOpenIndex());
+					tracksToFinish.add(t);
+				}
+			}
+		}
+		for(int i = 0; i < tracksToFinish.size(); i++){
+			addFinishedTrack(tracksToFinish.get(i));
+			fireTrackFinished(tracksToFinish.get(i));
+		}
+	}
+	
+	/**
+	 * @param frameIndex Frame index
+	 * @return Open tracks whose last detection is in the frame. Only the tracks which ended in this frame are visited.
+	 */
+	public ArrayList<Track> getTracksEndedAt(int frameIndex){
+		ArrayList<Track> tracks = new ArrayList<Track>();
+		ArrayList<Track> bucket = tracksByEndFrame.get(frameIndex);
+		if(bucket != null){
+			for(int i = 0; i < bucket.size(); i++){
+				Track t = bucket.get(i);
+				if(t.getOpenIndex()>=0 && t.getEndFrameIndex()==frameIndex){
+					tracks.add(t);
+				}
+			}
+			//Drop the tracks which were continued or finished
+			bucket.clear();
+			bucket.addAll(tracks);
 		}
+		return tracks;
+	}
+	
+	/**
+	 * Removes an open track. The last open track is moved to its index.
+	 */
+	private Track removeOpenTrack(int index){
+		Track t = get(index);
+		Track last = super.remove(size()-1);
+		if(index < size()){
+			set(index, last);
+			last.setOpenIndex(index);
+		}
+		t.setOpenIndex(-1);
+		return t;
+	}
+	
+	private void addToEndFrameBucket(Track t){
+		ArrayList<Track> bucket = tracksByEndFrame.get(t.getEndFrameIndex());
+		if(bucket == null){
+			bucket = new ArrayList<Track>();
+			tracksByEndFrame.put(t.getEndFrameIndex(), bucket);
+		}
+		bucket.add(t);
+	}
+	
+	private void addFinishedTrack(Track t){
+		finishedTracks.add(t);
+		finishedTracksByID.put(t.getTrackID(), t);
 	}
 	
 	/**
@@ -64,67 +169,151 @@ public class AllTracks extends ArrayList<Track>  {
 	 * @return Track with the specified track id. If such a track is missing, the return is null.
 	 */
 	public Track getFinishedTrackByID(int id){
-		for(int i = 0; i < finishedTracks.size(); i++){
-			if(finishedTracks.get(i).getTrackID()==id){
-				return finishedTracks.get(i);
-			}
-		}
-		return null;
+		return finishedTracksByID.get(id);
 	}
 	
 	/**
 	 * Finishes all open tracks
 	 */
 	public void finishAllOpenTracks(){
-		finishedTracks.addAll(openTracks);
-		openTracks.clear();
+		for(int i = 0; i < openTracks.size(); i++){
+			addFinishedTrack(openTracks.get(i));
+		}
+		for(int i = 0; i < openTracks.size(); i++){
+			openTracks.get(i).setOpenIndex(-1);
+			fireTrackFinished(openTracks.get(i));
+		}
+		super.clear();
+		tracksByEndFrame.clear();
+	}
+	
+	/**
+	 * Adds an open track. Its steps (and all steps added later) are included in the drift estimate.
+	 */
+	@Override
+	public boolean add(Track t) {
+		t.setDriftSums(this);
+		updateDriftSums(t, 1);
+		if(t.size()>5){
+			updateDriftField(t, 1, 1);
+		}
+		t.setOpenIndex(size());
+		addToEndFrameBucket(t);
+		return super.add(t);
 	}
 	
 	/**
-	 * @return Arraylist of finished tracks
+	 * Removes all open tracks and their contribution to the drift estimate.
+	 */
+	@Override
+	public void clear() {
+		for(int i = 0; i < size(); i++){
+			updateDriftSums(get(i), -1);
+			if(get(i).size()>5){
+				updateDriftField(get(i), 1, -1);
+			}
+			get(i).setDriftSums(null);
+			get(i).setOpenIndex(-1);
+		}
+		super.clear();
+		tracksByEndFrame.clear();
+	}
+	
+	/**
+	 * Removes all open and finished tracks and resets the drift estimate.
+	 */
+	public void reset(){
+		clear();
+		for(int i = 0; i < finishedTracks.size(); i++){
+			finishedTracks.get(i).setDriftSums(null);
+		}
+		finishedTracks.clear();
+		finishedTracksByID.clear();
+		driftField.clear();
+		driftSumX = 0;
+		driftSumY = 0;
+		driftSumFrames = 0;
+	}
+	
+	/**
+	 * Adds (sign = 1) or removes (sign = -1) the contribution of a track to the drift sums. The sum 
+	 * of the displacements of a track telescopes to the difference between its first and its last detection.
+	 */
+	void updateDriftSums(Track t, int sign){
+		if(t.size()>5){
+			driftSumX += sign*((double)t.getX(0)-t.getLastX());
+			driftSumY += sign*((double)t.getY(0)-t.getLastY());
+			driftSumFrames += sign*(t.getEndFrameIndex()-t.getFrameIndex(0)); //A step over a gap covers several frames
+		}
+	}
+	
+	/**
+	 * Adds the last step of a track to the time-resolved drift. When the track reaches 6 detections, all its steps are added.
+	 * An open track is moved to the bucket of its new end frame.
+	 */
+	void stepAdded(Track t){
+		if(t.getOpenIndex()>=0 && (t.size()==1 || t.getFrameIndex(t.size()-2)!=t.getEndFrameIndex())){
+			addToEndFrameBucket(t);
+		}
+		if(t.size()==6){
+			updateDriftField(t, 1, 1);
+		}
+		else if(t.size()>6){
+			updateDriftField(t, t.size()-1, 1);
+		}
+	}
+	
+	/**
+	 * Adds (sign = 1) or removes (sign = -1) the steps from..size-1 of a track to the time-resolved drift.
+	 */
+	private void updateDriftField(Track t, int from, int sign){
+		for(int j = from; j < t.size(); j++){
+			driftField.update(t.getFrameIndex(j), (double)t.getX(j-1)-t.getX(j), (double)t.getY(j-1)-t.getY(j), 
+					t.getFrameIndex(j)-t.getFrameIndex(j-1), sign);
+		}
+	}
+	
+	/**
+	 * @return Time-resolved drift of the tracks with more than 5 detections
+	 */
+	public DriftField getDriftField(){
+		return driftField;
+	}
+	
+	/**
+	 * @param window Half width of the smoothing window of the time-resolved drift [frames]. If it is 0, the 
+	 * global linear drift (getDrift()) is corrected.
+	 */
+	public void setDriftWindow(int window){
+		timeResolvedDrift = window > 0;
+		if(timeResolvedDrift){
+			driftField.setWindow(window);
+		}
+	}
+	
+	/**
+	 * @return True if the estimators correct the time-resolved drift instead of the global linear drift
+	 */
+	public boolean isTimeResolvedDrift(){
+		return timeResolvedDrift;
+	}
+	
+	/**
+	 * @return Arraylist of finished tracks. Tracks have to be finished by the finishTrack methods, not by adding them to this list.
 	 */
 	public ArrayList<Track>  getFinishedTracks(){
 		return finishedTracks;
 	}
 	
 	/**
-	 * Estimates the Drift of the detected tracks
-	 * @return Double Array with two entrys: [0] = Mean drift in x direction, [1] = Mean drift in y direction
+	 * Estimates the Drift of the detected tracks with more than 5 detections. The sums are updated 
+	 * each time a step is added, thus the estimate is available in constant time.
+	 * @return Double Array with two entrys: [0] = Mean drift per frame in x direction, [1] = Mean drift per frame in y direction
 	 */
 	public double[] getDrift(){
 		double[] drift = new double[2];
-		drift[0] = 0;
-		drift[1] = 0;
-		double N = 0;
-		
-		// Calculate the drift for the finished tracks
-		for(int i = 0; i < finishedTracks.size(); i++){
-			Track currTrack = finishedTracks.get(i);
-			if(currTrack.size()>5){
-				for(int j = 1; j<currTrack.size(); j++){
-					double dx = currTrack.get(j-1).getX()-currTrack.get(j).getX();
-					drift[0] = drift[0]+ dx; 
-					double dy = currTrack.get(j-1).getY()-currTrack.get(j).getY();
-					drift[1] = drift[1]+ dy;
-					N++;
-				}
-			}
-		}
-		// Add the drift from the open tracks
-		for(int i = 0; i < openTracks.size(); i++){
-			Track currTrack = openTracks.get(i);
-			if(currTrack.size()>5){
-				for(int j = 1; j<currTrack.size(); j++){
-					double dx = currTrack.get(j-1).getX()-currTrack.get(j).getX();
-					drift[0] = drift[0]+ dx;
-					double dy = currTrack.get(j-1).getY()-currTrack.get(j).getY();
-					drift[1] = drift[1]+ dy;
-					N++;
-				}
-			}
-		}
-		drift[0] = drift[0]/N;
-		drift[1] = drift[1]/N;
+		drift[0] = driftSumX/driftSumFrames;
+		drift[1] = driftSumY/driftSumFrames;
 		return drift;
 	}
 	/**
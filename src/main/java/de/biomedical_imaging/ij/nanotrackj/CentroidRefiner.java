@@ -0,0 +1,174 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.awt.Rectangle;
+
+import ij.gui.EllipseRoi;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Refines the position of a maximum by the intensity weighted center of gravity inside a disk. The radius of the 
+ * disk is the width of the central maximum of the diffraction pattern. The pixels are read directly from the pixel 
+ * array of the frame and the disks are precomputed (pixel offsets per radius, the same pixels as the mask of an 
+ * EllipseRoi), thus nothing is allocated per maximum. Several threads can refine concurrently.
+ * @author Thorsten Wagner
+ */
+public class CentroidRefiner {
+	
+	/**
+	 * Largest radius which is returned by findRadius()
+	 */
+	private static final int MAX_RADIUS = 31;
+	
+	/**
+	 * [r][2k], [r][2k+1] = x and y offset of pixel k of the disk with radius r, in the order of the mask rows
+	 */
+	private static final int[][] diskOffsets = new int[MAX_RADIUS+1][];
+	
+	static{
+		int c = 2*MAX_RADIUS;
+		for(int radius = 1; radius <= MAX_RADIUS; radius++){
+			EllipseRoi circleRoi = new EllipseRoi(c-radius, c-radius, c+radius, c+radius, 1);
+			ImageProcessor mask = circleRoi.getMask();
+			Rectangle r = circleRoi.getBounds();
+			int[] offsets = new int[2*r.width*r.height];
+			int n = 0;
+			for (int y=0; y<r.height; y++) {
+				for (int x=0; x<r.width; x++) {
+					if (mask==null||mask.getPixel(x,y)!=0) {
+						offsets[n++] = x+r.x-c;
+						offsets[n++] = y+r.y-c;
+					}
+				}
+			}
+			diskOffsets[radius] = java.util.Arrays.copyOf(offsets, n);
+		}
+	}
+	
+	private CentroidRefiner(){
+		
+	}
+	
+	/**
+	 * Estimates the center of gravity of the central maximum of a diffraction pattern
+	 * @param ip The image which contains the diffraction pattern
+	 * @param xc x-coordinate of the maximum
+	 * @param yc y-coordinate of the maximum
+	 * @param result Is filled with the center: [0] = x, [1] = y
+	 */
+	public static void refine(ImageProcessor ip, int xc, int yc, float[] result){
+		int radius = Math.max(findRadius(ip, xc, yc, 1), findRadius(ip, xc, yc, -1));
+		int[] offsets = diskOffsets[radius];
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		Object pixels = ip.getPixels();
+		byte[] bytePixels = (pixels instanceof byte[] && ip.getCalibrationTable()==null) ? (byte[])pixels : null;
+		int[] rgbPixels = (ip instanceof ColorProcessor) ? (int[])pixels : null;
+		double[] rgbWeights = null;
+		if(rgbPixels != null){
+			//Same weights as ColorProcessor.getPixelValue()
+			rgbWeights = ((ColorProcessor)ip).getRGBWeights();
+			if(rgbWeights == null){
+				rgbWeights = ColorProcessor.getWeightingFactors();
+			}
+		}
+		
+		double sumx = 0;
+		double sumy = 0;
+		double sumWeight = 0;
+		for(int k = 0; k < offsets.length; k += 2){
+			int x = xc + offsets[k];
+			int y = yc + offsets[k+1];
+			if(x < 0 || x >= width || y < 0 || y >= height){
+				continue; //Pixels outside the image have no weight
+			}
+			float weight;
+			if(bytePixels != null){
+				weight = bytePixels[y*width+x]&0xff;
+			}
+			else if(rgbPixels != null){
+				int c = rgbPixels[y*width+x];
+				weight = (int)(float)(((c&0xff0000)>>16)*rgbWeights[0] + ((c&0xff00)>>8)*rgbWeights[1] + (c&0xff)*rgbWeights[2]);
+			}
+			else{
+				weight = (int)ip.getPixelValue(x, y);
+			}
+			sumWeight += weight;
+			sumx += x*weight;
+			sumy += y*weight;
+		}
+		result[0] = (float)(sumx/sumWeight);
+		result[1] = (float)(sumy/sumWeight);
+	}
+	
+	/**
+	 * Estimates the width of the central maximum of the diffraction pattern by searching the first maxima of the 
+	 * second drivative in x direction. Outside the image, the pixels of the border are repeated.
+	 * @param ip The image which contains the diffraction pattern
+	 * @param x x-coordinate of the maximum
+	 * @param y y-coordinate of the maximum
+	 * @param direction direction > 0 -> Right, Direction < 0 -> Left
+	 * @return Radius of central maximum (1..MAX_RADIUS)
+	 */
+	static int findRadius(ImageProcessor ip, int x, int y, int direction){
+		int c = 0;
+		int ldx = Integer.MIN_VALUE;
+		int dx = Integer.MIN_VALUE;
+		if(Math.abs(direction)!=1){
+			direction = (int)Math.signum(direction);
+		}
+		y = clamp(y, ip.getHeight());
+		int width = ip.getWidth();
+		do{
+			int xi = x + (direction*c);
+			ldx = dx;
+			dx = 2*ip.get(clamp(xi, width), y)-ip.get(clamp(xi-1, width), y)-ip.get(clamp(xi+1, width), y);
+			c++;
+		}while(c<=MAX_RADIUS-1 && signUnChanged(ldx,dx) );
+		return c;
+	}
+	
+	private static int clamp(int i, int length){
+		return Math.max(0, Math.min(i, length-1));
+	}
+	
+	/**
+	 * Checks if a sign of a value is unchanged.
+	 * @param ldx Last value
+	 * @param dx Current value
+	 * @return True if the sign has not changed.
+	 */
+	private static boolean signUnChanged(int ldx, int dx){
+		if(ldx==Integer.MIN_VALUE){
+			return true;
+		}
+		if(ldx*dx < 0){
+			return false;
+		}
+		return true;
+	}
+
+}
@@ -25,20 +25,23 @@ package de.biomedical_imaging.ij.nanotrackj;
 
 public class CovarianceEstimator extends IDiffusionCoefficientEstimator {
 
-	double driftx;
-	double drifty;
-	Track track;
-
-	private double getDistanceProductX(int n,int m){
-		double xn = track.get(n).getX() - track.get(n-1).getX() + driftx;
-		double xm = track.get(m).getX() - track.get(m-1).getX() + driftx; 
+	private double getDistanceProductX(Track track, int n, int m, double driftx){
+		double xn = track.getX(n) - track.getX(n-1) + driftx;
+		double xm = track.getX(m) - track.getX(m-1) + driftx; 
 
 		return xn*xm;
 	}
 	
-	private double getDistanceProductY(int n,int m){
-		double xn = track.get(n).getY() - track.get(n-1).getY() + drifty;
-		double xm = track.get(m).getY() - track.get(m-1).getY() + drifty;
+	/**
+	 * @return True if the n-th step is exactly one frame after the (n-1)-th step
+	 */
+	private boolean isSingleFrameStep(Track track, int n){
+		return track.getFrameIndex(n) - track.getFrameIndex(n-1) == 1;
+	}
+	
+	private double getDistanceProductY(Track track, int n, int m, double drifty){
+		double xn = track.getY(n) - track.getY(n-1) + drifty;
+		double xm = track.getY(m) - track.getY(m-1) + drifty;
 		return xn*xm;
 	}
 	
@@ -51,10 +54,6 @@ public class CovarianceEstimator extends IDiffusionCoefficientEstimator {
 	 */
 	public double getDiffusionCoefficient(Track track, double driftX,
 			double driftY) {
-		this.driftx = driftX;
-		this.drifty = driftY;
-		this.track = track;
-		
 		if(track.size()==1){
 			return 0;
 		}
@@ -85,11 +84,6 @@ public class CovarianceEstimator extends IDiffusionCoefficientEstimator {
 	
 	private double[] getCovData(Track track, double R, double driftX,
 			double driftY){
-		
-		
-		this.driftx = driftX;
-		this.drifty = driftY;
-		this.track = track;
 
 		double sumX = 0;
 		double sumX2 = 0;
@@ -98,13 +92,17 @@ public class CovarianceEstimator extends IDiffusionCoefficientEstimator {
 		int N=0;
 		int M=0;
 
+		//Only displacements between consecutive frames are used, displacements over a gap are skipped
 		for(int i = 1; i < track.size(); i++){
-			sumX = sumX + getDistanceProductX(i, i) ;
-			sumY = sumY + getDistanceProductY(i, i) ;
+			if(!isSingleFrameStep(track, i)){
+				continue;
+			}
+			sumX = sumX + getDistanceProductX(track, i, i, driftX) ;
+			sumY = sumY + getDistanceProductY(track, i, i, driftY) ;
 			N++;
-			if(i < (track.size()-1)){
-				sumX2 = sumX2 + getDistanceProductX(i, i+1) ;
-				sumY2 = sumY2 + getDistanceProductY(i, i+1);
+			if(i < (track.size()-1) && isSingleFrameStep(track, i+1)){
+				sumX2 = sumX2 + getDistanceProductX(track, i, i+1, driftX) ;
+				sumY2 = sumY2 + getDistanceProductY(track, i, i+1, driftY);
 				M++;
 			}
 		}
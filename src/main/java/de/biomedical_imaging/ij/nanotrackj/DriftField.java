@@ -0,0 +1,209 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.util.Arrays;
+
+/**
+ * Time-resolved drift model. The displacements of the steps are accumulated per frame (the frame 
+ * where the step ends) while the video is analyzed. The drift at a frame is the mean displacement per frame 
+ * of all steps which end inside a window of +- window frames around it. The window sums are 
+ * read from Fenwick trees (binary indexed trees), thus adding a step and querying the drift of a frame 
+ * costs O(log(number of frames)).
+ * 
+ * The cumulative drift (sum of the drift of all frames up to a frame) is tabulated. A new step only 
+ * invalidates the table from its window on, thus the table is extended lazily and 
+ * drift correction of a position is a table lookup. All public methods are synchronized, 
+ * thus tracks can be corrected concurrently.
+ * 
+ * As in AllTracks.getDrift() the drift is the negative mean displacement: 
+ * drift = mean(x_(n-1) - x_n) per frame.
+ * @author Thorsten Wagner
+ */
+public class DriftField {
+	
+	private int window;
+	private int capacity = 0;
+	private double[] sumX = new double[0];		//Raw per frame sums, [frame]
+	private double[] sumY = new double[0];
+	private double[] sumFrames = new double[0];
+	private double[] treeX = new double[1];		//Fenwick trees of the raw sums, 1-based
+	private double[] treeY = new double[1];
+	private double[] treeFrames = new double[1];
+	private double[] cumulativeX = new double[0];
+	private double[] cumulativeY = new double[0];
+	private int lastFrame = 0;					//Last frame with a step
+	private int validUpTo = 0;					//The cumulative drift is valid up to this frame
+	
+	/**
+	 * @param window Half width of the smoothing window [frames]
+	 */
+	public DriftField(int window){
+		setWindow(window);
+	}
+	
+	/**
+	 * @param window Half width of the smoothing window [frames]
+	 */
+	public synchronized void setWindow(int window){
+		if(window < 0){
+			throw new IllegalArgumentException("The window must not be negative");
+		}
+		this.window = window;
+		validUpTo = 0;
+	}
+	
+	/**
+	 * @return Half width of the smoothing window [frames]
+	 */
+	public int getWindow(){
+		return window;
+	}
+	
+	/**
+	 * Removes all steps.
+	 */
+	public synchronized void clear(){
+		Arrays.fill(sumX, 0);
+		Arrays.fill(sumY, 0);
+		Arrays.fill(sumFrames, 0);
+		Arrays.fill(treeX, 0);
+		Arrays.fill(treeY, 0);
+		Arrays.fill(treeFrames, 0);
+		lastFrame = 0;
+		validUpTo = 0;
+	}
+	
+	/**
+	 * Adds (sign = 1) or removes (sign = -1) a step.
+	 * @param endFrame Frame where the step ends
+	 * @param dx Negative displacement in x direction (x_start - x_end)
+	 * @param dy Negative displacement in y direction (y_start - y_end)
+	 * @param frames Number of frames covered by the step (more than one for a step over a gap)
+	 */
+	public synchronized void update(int endFrame, double dx, double dy, int frames, int sign){
+		if(endFrame >= capacity){
+			grow(endFrame+1);
+		}
+		sumX[endFrame] += sign*dx;
+		sumY[endFrame] += sign*dy;
+		sumFrames[endFrame] += sign*frames;
+		for(int i = endFrame; i < treeX.length; i += i & (-i)){
+			treeX[i] += sign*dx;
+			treeY[i] += sign*dy;
+			treeFrames[i] += sign*frames;
+		}
+		lastFrame = Math.max(lastFrame, endFrame);
+		validUpTo = Math.min(validUpTo, endFrame-window-1);
+	}
+	
+	private void grow(int minCapacity){
+		capacity = Math.max(minCapacity, 2*capacity);
+		sumX = Arrays.copyOf(sumX, capacity);
+		sumY = Arrays.copyOf(sumY, capacity);
+		sumFrames = Arrays.copyOf(sumFrames, capacity);
+		cumulativeX = Arrays.copyOf(cumulativeX, capacity);
+		cumulativeY = Arrays.copyOf(cumulativeY, capacity);
+		//Rebuild the trees in O(capacity)
+		treeX = new double[capacity];
+		treeY = new double[capacity];
+		treeFrames = new double[capacity];
+		for(int i = 1; i < capacity; i++){
+			treeX[i] += sumX[i];
+			treeY[i] += sumY[i];
+			treeFrames[i] += sumFrames[i];
+			int parent = i + (i & (-i));
+			if(parent < capacity){
+				treeX[parent] += treeX[i];
+				treeY[parent] += treeY[i];
+				treeFrames[parent] += treeFrames[i];
+			}
+		}
+	}
+	
+	private double prefixSum(double[] tree, int frame){
+		double sum = 0;
+		for(int i = Math.min(frame, tree.length-1); i > 0; i -= i & (-i)){
+			sum += tree[i];
+		}
+		return sum;
+	}
+	
+	/**
+	 * @param frame Frame index
+	 * @return [0] = Drift per frame in x direction, [1] = Drift per frame in y direction at the frame (NaN if no step ends inside the window) 
+	 */
+	public synchronized double[] getDrift(int frame){
+		double[] drift = new double[2];
+		drift[0] = getWindowMean(treeX, frame);
+		drift[1] = getWindowMean(treeY, frame);
+		return drift;
+	}
+	
+	private double getWindowMean(double[] tree, int frame){
+		int from = Math.max(frame-window, 1);
+		int to = frame+window;
+		double n = prefixSum(treeFrames, to) - prefixSum(treeFrames, from-1);
+		if(n <= 0){
+			return Double.NaN;
+		}
+		return (prefixSum(tree, to) - prefixSum(tree, from-1))/n;
+	}
+	
+	/**
+	 * @return Cumulative drift in x direction: Sum of the drift of all frames up to the frame [pixel]
+	 */
+	public synchronized double getCumulativeDriftX(int frame){
+		updateCumulativeDrift();
+		return cumulativeX[clampFrame(frame)];
+	}
+	
+	/**
+	 * @return Cumulative drift in y direction: Sum of the drift of all frames up to the frame [pixel]
+	 */
+	public synchronized double getCumulativeDriftY(int frame){
+		updateCumulativeDrift();
+		return cumulativeY[clampFrame(frame)];
+	}
+	
+	private int clampFrame(int frame){
+		return Math.max(0, Math.min(frame, lastFrame));
+	}
+	
+	/**
+	 * Extends the table of the cumulative drift up to the last frame. Frames without steps inside 
+	 * their window do not contribute.
+	 */
+	private void updateCumulativeDrift(){
+		int from = Math.max(validUpTo, 0);
+		for(int f = from+1; f <= lastFrame; f++){
+			double driftX = getWindowMean(treeX, f);
+			double driftY = getWindowMean(treeY, f);
+			cumulativeX[f] = cumulativeX[f-1] + (Double.isNaN(driftX) ? 0 : driftX);
+			cumulativeY[f] = cumulativeY[f-1] + (Double.isNaN(driftY) ? 0 : driftY);
+		}
+		validUpTo = lastFrame;
+	}
+
+}
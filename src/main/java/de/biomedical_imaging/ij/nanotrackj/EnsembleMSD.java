@@ -0,0 +1,193 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Ensemble mean squared displacement of a set of tracks for all timelags 0..maxLag. The squared displacements of all 
+ * tracks are pooled, i.e. the MSD of each track is weighted by its number of displacements. The tracks can be grouped 
+ * into classes (e.g. size classes), each class gets its own curve.
+ * @author Thorsten Wagner
+ */
+public class EnsembleMSD {
+	
+	private double[] sum;
+	private long[] n;
+	private int numberOfTracks;
+	
+	/**
+	 * Tracks per task of the parallel reduction
+	 */
+	private static final int TRACKS_PER_TASK = 32;
+	
+	private EnsembleMSD(int maxLag){
+		sum = new double[maxLag+1];
+		n = new long[maxLag+1];
+	}
+	
+	/**
+	 * @return The largest timelag of the curve
+	 */
+	public int getMaxLag(){
+		return sum.length-1;
+	}
+	
+	/**
+	 * @param tau Timelag in frames
+	 * @return The ensemble mean squared displacement [pixel^2], NaN if there are no displacements with this timelag
+	 */
+	public double getMSD(int tau){
+		return sum[tau]/n[tau];
+	}
+	
+	/**
+	 * @param tau Timelag in frames
+	 * @return Number of displacements of all tracks with this timelag
+	 */
+	public long getN(int tau){
+		return n[tau];
+	}
+	
+	/**
+	 * @return Number of tracks which contribute to the curve
+	 */
+	public int getNumberOfTracks(){
+		return numberOfTracks;
+	}
+	
+	private void add(MSDCurve curve){
+		for(int tau = 0; tau < sum.length; tau++){
+			if(curve.getN(tau) > 0){
+				sum[tau] += curve.getMSD(tau)*curve.getN(tau);
+				n[tau] += curve.getN(tau);
+			}
+		}
+		numberOfTracks++;
+	}
+	
+	private void add(EnsembleMSD other){
+		for(int tau = 0; tau < sum.length; tau++){
+			sum[tau] += other.sum[tau];
+			n[tau] += other.n[tau];
+		}
+		numberOfTracks += other.numberOfTracks;
+	}
+	
+	/**
+	 * Computes the ensemble curve of all tracks.
+	 * @param tracks Tracks
+	 * @param correctDrift True if the drift has to be corrected.
+	 * @param maxLag Largest timelag in frames
+	 * @param parallelism Number of threads
+	 * @return Ensemble curve for the timelags 0..maxLag
+	 */
+	public static EnsembleMSD compute(List<Track> tracks, boolean correctDrift, int maxLag, int parallelism){
+		return compute(tracks, new int[tracks.size()], 1, correctDrift, maxLag, parallelism)[0];
+	}
+	
+	/**
+	 * Computes one ensemble curve per class in a single parallel pass over the tracks.
+	 * @param tracks Tracks
+	 * @param trackClass Class of each track (0..numberOfClasses-1), tracks with a negative class are skipped
+	 * @param numberOfClasses Number of classes
+	 * @param correctDrift True if the drift has to be corrected.
+	 * @param maxLag Largest timelag in frames
+	 * @param parallelism Number of threads
+	 * @return [i] = Ensemble curve of class i
+	 */
+	public static EnsembleMSD[] compute(List<Track> tracks, int[] trackClass, int numberOfClasses, boolean correctDrift, 
+			int maxLag, int parallelism){
+		if(correctDrift && AllTracks.getInstance().isTimeResolvedDrift()){
+			//Complete the table of the cumulative drift before the threads read it
+			AllTracks.getInstance().getDriftField().getCumulativeDriftX(0);
+		}
+		EnsembleTask task = new EnsembleTask(tracks, trackClass, numberOfClasses, correctDrift, maxLag, 0, tracks.size());
+		EnsembleMSD[] curves;
+		if(parallelism > 1 && tracks.size() > TRACKS_PER_TASK){
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try{
+				curves = pool.invoke(task);
+			} finally{
+				pool.shutdown();
+			}
+		}
+		else{
+			curves = task.compute();
+		}
+		return curves;
+	}
+	
+	/**
+	 * Splits the tracks and reduces the partial curves.
+	 */
+	@SuppressWarnings("serial")
+	private static class EnsembleTask extends RecursiveTask<EnsembleMSD[]> {
+		private List<Track> tracks;
+		private int[] trackClass;
+		private int numberOfClasses;
+		private boolean correctDrift;
+		private int maxLag;
+		private int from;
+		private int to;
+		
+		EnsembleTask(List<Track> tracks, int[] trackClass, int numberOfClasses, boolean correctDrift, int maxLag, int from, int to){
+			this.tracks = tracks;
+			this.trackClass = trackClass;
+			this.numberOfClasses = numberOfClasses;
+			this.correctDrift = correctDrift;
+			this.maxLag = maxLag;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected EnsembleMSD[] compute() {
+			if(to-from <= TRACKS_PER_TASK){
+				EnsembleMSD[] curves = new EnsembleMSD[numberOfClasses];
+				for(int k = 0; k < numberOfClasses; k++){
+					curves[k] = new EnsembleMSD(maxLag);
+				}
+				for(int i = from; i < to; i++){
+					if(trackClass[i] >= 0){
+						curves[trackClass[i]].add(tracks.get(i).getMSDCurve(correctDrift, maxLag));
+					}
+				}
+				return curves;
+			}
+			int mid = (from+to)/2;
+			EnsembleTask left = new EnsembleTask(tracks, trackClass, numberOfClasses, correctDrift, maxLag, from, mid);
+			left.fork();
+			EnsembleMSD[] curves = new EnsembleTask(tracks, trackClass, numberOfClasses, correctDrift, maxLag, mid, to).compute();
+			EnsembleMSD[] curvesLeft = left.join();
+			for(int k = 0; k < numberOfClasses; k++){
+				curves[k].add(curvesLeft[k]);
+			}
+			return curves;
+		}
+	}
+
+}
@@ -0,0 +1,355 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Fits a symmetric 2D gaussian with constant background 
+ * I(x,y) = A exp(-((x-x0)^2 + (y-y0)^2) / (2 sigma^2)) + B 
+ * to the spots of a frame by the Levenberg-Marquardt algorithm (least squares, analytical jacobian). 
+ * Each spot is fitted inside a square window around its maximum. All spots of a frame are fitted as 
+ * a batch, optionally in parallel. Every task fits its spots with one preallocated workspace, thus nothing 
+ * is allocated per spot or iteration. If a fit does not converge (or the center leaves the window), the 
+ * center of gravity (see CentroidRefiner) is used.
+ * @author Thorsten Wagner
+ */
+public class GaussianFitter {
+	
+	/**
+	 * Indices of the parameters in the result of fit()
+	 */
+	public static final int X = 0, Y = 1, AMPLITUDE = 2, BACKGROUND = 3, SIGMA = 4, CONVERGED = 5;
+	
+	private static final int NUMBER_OF_PARAMETERS = 5;
+	private static final int MAX_ITERATIONS = 30;
+	private static final double MIN_STEP = 1e-4;				// [pixel], convergence criterion of the center
+	private static final int SPOTS_PER_TASK = 64;
+	
+	private int halfWidth;
+	private int parallelism = 1;
+	private ForkJoinPool pool;
+	
+	/**
+	 * @param halfWidth Half width of the fit window [pixel], the window has (2 halfWidth + 1)^2 pixels
+	 */
+	public GaussianFitter(int halfWidth){
+		this.halfWidth = halfWidth;
+	}
+	
+	/**
+	 * @param parallelism Number of threads which fit the spots of a frame, 1 = sequential (default)
+	 */
+	public void setParallelism(int parallelism){
+		shutdown();
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Stops the threads of the fitter (if it was parallel). 
+	 */
+	public void shutdown(){
+		if(pool != null){
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	
+	/**
+	 * Fits all spots of a frame.
+	 * @param ip The frame
+	 * @param x x coordinates of the maxima
+	 * @param y y coordinates of the maxima
+	 * @param n Number of spots
+	 * @return [i][X], [i][Y] = center of spot i [pixel], [i][AMPLITUDE], [i][BACKGROUND], [i][SIGMA] = Fitted parameters, 
+	 * [i][CONVERGED] = 1 if the fit converged, 0 if the center is the center of gravity (the other parameters are NaN then)
+	 */
+	public double[][] fit(ImageProcessor ip, int[] x, int[] y, int n){
+		double[][] result = new double[n][CONVERGED+1];
+		FitTask task = new FitTask(ip, x, y, result, 0, n);
+		if(parallelism > 1 && n > SPOTS_PER_TASK){
+			if(pool == null){
+				pool = new ForkJoinPool(parallelism);
+			}
+			pool.invoke(task);
+		}
+		else{
+			task.compute();
+		}
+		return result;
+	}
+	
+	/**
+	 * Splits the spots of the frame.
+	 */
+	@SuppressWarnings("serial")
+	private class FitTask extends RecursiveAction {
+		private ImageProcessor ip;
+		private int[] x;
+		private int[] y;
+		private double[][] result;
+		private int from;
+		private int to;
+		
+		FitTask(ImageProcessor ip, int[] x, int[] y, double[][] result, int from, int to){
+			this.ip = ip;
+			this.x = x;
+			this.y = y;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to-from <= SPOTS_PER_TASK){
+				Workspace ws = new Workspace(halfWidth);
+				for(int i = from; i < to; i++){
+					fitSpot(ip, x[i], y[i], ws, result[i]);
+				}
+				return;
+			}
+			int mid = (from+to)/2;
+			invokeAll(new FitTask(ip, x, y, result, from, mid), new FitTask(ip, x, y, result, mid, to));
+		}
+	}
+	
+	/**
+	 * Buffers of a single fit, reused for all spots of a task.
+	 */
+	private static class Workspace {
+		double[] px;			// Window: x coordinates, y coordinates and intensities of the pixels
+		double[] py;
+		double[] intensity;
+		int size;				// Number of pixels of the window which are inside the image
+		double[] p = new double[NUMBER_OF_PARAMETERS];			// Current parameters
+		double[] trial = new double[NUMBER_OF_PARAMETERS];
+		double[] jacobian = new double[NUMBER_OF_PARAMETERS];	// Of a single pixel
+		double[] alpha = new double[NUMBER_OF_PARAMETERS*NUMBER_OF_PARAMETERS];	// J^T J
+		double[] beta = new double[NUMBER_OF_PARAMETERS];		// J^T r
+		double[] a = new double[NUMBER_OF_PARAMETERS*NUMBER_OF_PARAMETERS];		// Damped system
+		double[] delta = new double[NUMBER_OF_PARAMETERS];
+		float[] center = new float[2];							// Center of gravity, if the fit fails
+		
+		Workspace(int halfWidth){
+			int w = 2*halfWidth+1;
+			px = new double[w*w];
+			py = new double[w*w];
+			intensity = new double[w*w];
+		}
+	}
+	
+	private void fitSpot(ImageProcessor ip, int xc, int yc, Workspace ws, double[] result){
+		//Copy the window
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		ws.size = 0;
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for(int y = Math.max(0, yc-halfWidth); y <= Math.min(height-1, yc+halfWidth); y++){
+			for(int x = Math.max(0, xc-halfWidth); x <= Math.min(width-1, xc+halfWidth); x++){
+				double v = ip.getPixelValue(x, y);
+				ws.px[ws.size] = x;
+				ws.py[ws.size] = y;
+				ws.intensity[ws.size] = v;
+				ws.size++;
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+		}
+		
+		//Start: Maximum, background = min. of the window, sigma from the second moment
+		double[] p = ws.p;
+		p[X] = xc;
+		p[Y] = yc;
+		p[AMPLITUDE] = max-min;
+		p[BACKGROUND] = min;
+		double sum = 0;
+		double sum2 = 0;
+		for(int k = 0; k < ws.size; k++){
+			double w = ws.intensity[k]-min;
+			double dx = ws.px[k]-xc;
+			double dy = ws.py[k]-yc;
+			sum += w;
+			sum2 += w*(dx*dx+dy*dy);
+		}
+		p[SIGMA] = Math.max(0.5, Math.min(halfWidth, Math.sqrt(sum2/(2*sum))));
+		
+		boolean converged = ws.size > 2*NUMBER_OF_PARAMETERS && max > min && levenbergMarquardt(ws);
+		converged = converged && Math.abs(p[X]-xc) <= halfWidth && Math.abs(p[Y]-yc) <= halfWidth 
+				&& p[SIGMA] > 0 && p[SIGMA] <= 2*halfWidth && p[AMPLITUDE] > 0;
+		if(converged){
+			System.arraycopy(p, 0, result, 0, NUMBER_OF_PARAMETERS);
+			result[CONVERGED] = 1;
+		}
+		else{
+			CentroidRefiner.refine(ip, xc, yc, ws.center);
+			result[X] = ws.center[0];
+			result[Y] = ws.center[1];
+			result[AMPLITUDE] = Double.NaN;
+			result[BACKGROUND] = Double.NaN;
+			result[SIGMA] = Double.NaN;
+			result[CONVERGED] = 0;
+		}
+	}
+	
+	/**
+	 * Minimizes the sum of squared residuals, starting at ws.p.
+	 * @return True if the step of the center got smaller than MIN_STEP
+	 */
+	private static boolean levenbergMarquardt(Workspace ws){
+		double lambda = 1e-3;
+		double chi2 = normalEquations(ws, ws.p);
+		for(int iteration = 0; iteration < MAX_ITERATIONS; iteration++){
+			//Solve (J^T J + lambda diag(J^T J)) delta = J^T r
+			for(int j = 0; j < NUMBER_OF_PARAMETERS*NUMBER_OF_PARAMETERS; j++){
+				ws.a[j] = ws.alpha[j];
+			}
+			for(int j = 0; j < NUMBER_OF_PARAMETERS; j++){
+				ws.a[j*NUMBER_OF_PARAMETERS+j] *= 1+lambda;
+			}
+			if(!solveCholesky(ws.a, ws.beta, ws.delta)){
+				return false;
+			}
+			for(int j = 0; j < NUMBER_OF_PARAMETERS; j++){
+				ws.trial[j] = ws.p[j] + ws.delta[j];
+			}
+			double trialChi2 = getChi2(ws, ws.trial);
+			if(trialChi2 < chi2){
+				System.arraycopy(ws.trial, 0, ws.p, 0, NUMBER_OF_PARAMETERS);
+				lambda = Math.max(lambda/10, 1e-10);
+				if(Math.abs(ws.delta[X]) < MIN_STEP && Math.abs(ws.delta[Y]) < MIN_STEP){
+					return true;
+				}
+				chi2 = normalEquations(ws, ws.p);
+			}
+			else{
+				lambda *= 10;
+				if(lambda > 1e10){
+					//No improvement possible: At the minimum if the last step was already small
+					return Math.abs(ws.delta[X]) < MIN_STEP && Math.abs(ws.delta[Y]) < MIN_STEP;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Fills J^T J and J^T r of the parameters p into the workspace.
+	 * @return Sum of squared residuals
+	 */
+	private static double normalEquations(Workspace ws, double[] p){
+		Arrays.fill(ws.alpha, 0);
+		Arrays.fill(ws.beta, 0);
+		double[] jac = ws.jacobian;
+		double s2 = p[SIGMA]*p[SIGMA];
+		double chi2 = 0;
+		for(int k = 0; k < ws.size; k++){
+			double dx = ws.px[k]-p[X];
+			double dy = ws.py[k]-p[Y];
+			double d2 = dx*dx+dy*dy;
+			double e = Math.exp(-d2/(2*s2));
+			double g = p[AMPLITUDE]*e;
+			double r = ws.intensity[k] - g - p[BACKGROUND];
+			jac[X] = g*dx/s2;
+			jac[Y] = g*dy/s2;
+			jac[AMPLITUDE] = e;
+			jac[BACKGROUND] = 1;
+			jac[SIGMA] = g*d2/(s2*p[SIGMA]);
+			for(int i = 0; i < NUMBER_OF_PARAMETERS; i++){
+				ws.beta[i] += jac[i]*r;
+				for(int j = 0; j <= i; j++){
+					ws.alpha[i*NUMBER_OF_PARAMETERS+j] += jac[i]*jac[j];
+				}
+			}
+			chi2 += r*r;
+		}
+		for(int i = 0; i < NUMBER_OF_PARAMETERS; i++){
+			for(int j = 0; j < i; j++){
+				ws.alpha[j*NUMBER_OF_PARAMETERS+i] = ws.alpha[i*NUMBER_OF_PARAMETERS+j];
+			}
+		}
+		return chi2;
+	}
+	
+	/**
+	 * @return Sum of squared residuals of the parameters p
+	 */
+	private static double getChi2(Workspace ws, double[] p){
+		double s2 = p[SIGMA]*p[SIGMA];
+		double chi2 = 0;
+		for(int k = 0; k < ws.size; k++){
+			double dx = ws.px[k]-p[X];
+			double dy = ws.py[k]-p[Y];
+			double r = ws.intensity[k] - p[AMPLITUDE]*Math.exp(-(dx*dx+dy*dy)/(2*s2)) - p[BACKGROUND];
+			chi2 += r*r;
+		}
+		return chi2;
+	}
+	
+	/**
+	 * Solves a x = b for a symmetric positive definite matrix a (row major, overwritten by its cholesky factor).
+	 * @return False if a is not positive definite
+	 */
+	private static boolean solveCholesky(double[] a, double[] b, double[] x){
+		int n = NUMBER_OF_PARAMETERS;
+		for(int i = 0; i < n; i++){
+			for(int j = 0; j <= i; j++){
+				double s = a[i*n+j];
+				for(int k = 0; k < j; k++){
+					s -= a[i*n+k]*a[j*n+k];
+				}
+				if(i == j){
+					if(!(s > 0)){
+						return false;
+					}
+					a[i*n+i] = Math.sqrt(s);
+				}
+				else{
+					a[i*n+j] = s/a[j*n+j];
+				}
+			}
+		}
+		for(int i = 0; i < n; i++){
+			double s = b[i];
+			for(int k = 0; k < i; k++){
+				s -= a[i*n+k]*x[k];
+			}
+			x[i] = s/a[i*n+i];
+		}
+		for(int i = n-1; i >= 0; i--){
+			double s = x[i];
+			for(int k = i+1; k < n; k++){
+				s -= a[k*n+i]*x[k];
+			}
+			x[i] = s/a[i*n+i];
+		}
+		return true;
+	}
+
+}
@@ -27,7 +27,9 @@ public abstract class IDiffusionCoefficientEstimator {
 	private double framesPerSecond = 30.0;
 	
 	/**
-	 * Calculates the diffusion coefficient
+	 * Calculates the diffusion coefficient. Implementations must not store per-track state in fields, 
+	 * as the tracks are estimated concurrently (see Track.summarize(List, ...)). The settings 
+	 * (e.g. timelags) are only changed by setup().
 	 * @param track Particle trajectory 
 	 * @param driftx The mean drift in x direction
 	 * @param drifty The mean drift in y direction
@@ -6,17 +6,16 @@ import ij.gui.GenericDialog;
 public class KalmanCovarianceEstimator extends CovarianceEstimator {
 	
 	double R;
-	Track track;
+	
 	@Override
 	public double getDiffusionCoefficient(Track track, double driftX,
 			double driftY) {
-		this.track = track;
-		Track t = getKalmanFilteredTrack(R);
+		Track t = getKalmanFilteredTrack(track, R);
 		//IJ.log("KALMAN");
 		return super.getDiffusionCoefficient(t, driftX, driftY);
 	}
 	
-public Track getKalmanFilteredTrack(double R){
+public Track getKalmanFilteredTrack(Track track, double R){
 		
 		//Get Drift
 		double[] drift = AllTracks.getInstance().getDrift();
@@ -33,41 +32,40 @@ public Track getKalmanFilteredTrack(double R){
 		//double R = 0.059333333;//(836.0/1500)/6;
 		double[] locnoise = super.getLocalizationNoise(track, R, drift[0], drift[1]); 
 		
-		Track filteredTrack = new Track(track.getStartFrameIndex());
+		Track filteredTrack = new Track(track);
 		
-		double postX = track.get(0).getX();
-		double postY = track.get(0).getY();
+		double postX = track.getX(0);
+		double postY = track.getY(0);
 		double postMMSEX=locnoise[0];
 		double postMMSEY=locnoise[1];
 		double varDF = super.getDiffusionCoefficient(track, drift[0], drift[1])*2*getFramesPerSecond();
 		double varNoiseX = locnoise[0];
 		double varNoiseY = locnoise[1];
 		
-		CenterBlob cb = new CenterBlob((float)postX,(float)postY,((CenterBlob)track.get(0).getBlob()).getHUE());
-		Step s = new Step(cb, track.get(0).getFrameIndex());
-		filteredTrack.add(s);
+		filteredTrack.add((float)postX, (float)postY, track.getIntensity(0), track.getHue(0), track.getFrameIndex(0));
 		
 		//Get drift corrected track
 		for (int i = 1; i < track.size(); i++) {
-			//Prediction
-			double priorX = postX + i*drift[0];
-			double priorY = postY + i*drift[1];
+			int lag = track.getFrameIndex(i) - track.getFrameIndex(0); //Frames since the start of the track, including gaps
+			int steps = track.getFrameIndex(i) - track.getFrameIndex(i-1);
+			
+			//Prediction: The drift corrected position is a random walk
+			double priorX = postX;
+			double priorY = postY;
 			
-			//Minimum Predction MSE
-			double priorMMSEX = postMMSEX + varDF;
-			double priorMMSEY = postMMSEY + varDF;
+			//Minimum Predction MSE, the variance grows with each frame since the last detection
+			double priorMMSEX = postMMSEX + steps*varDF;
+			double priorMMSEY = postMMSEY + steps*varDF;
 			
 			//Kalman Gain
 			double Kx = priorMMSEX * 1/(varNoiseX+priorMMSEX);
 			double Ky = priorMMSEY * 1/(varNoiseY+priorMMSEY);
 			
 			//Correction
-			postX = priorX + Kx * (track.get(i).getX()+i*drift[0] - priorX); // 
-			postY = priorY + Ky * (track.get(i).getY()+i*drift[1] - priorY); //
+			postX = priorX + Kx * (track.getX(i)+lag*drift[0] - priorX); // 
+			postY = priorY + Ky * (track.getY(i)+lag*drift[1] - priorY); //
 			
-			cb = new CenterBlob((float)postX,(float)postY,((CenterBlob)track.get(i).getBlob()).getHUE());
-			s = new Step(cb, track.get(i).getFrameIndex());
-			filteredTrack.add(s);
+			filteredTrack.add((float)postX, (float)postY, track.getIntensity(i), track.getHue(i), track.getFrameIndex(i));
 			
 			//Minimum MSE
 			postMMSEX = (1-Kx)*priorMMSEX;
@@ -0,0 +1,240 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+/**
+ * Solves the linear assignment problem of a sparse cost matrix by successive shortest augmenting paths 
+ * with dual potentials (Jonker, R. & Volgenant, A., 1987. A shortest augmenting path algorithm for dense and 
+ * sparse linear assignment problems. Computing, 38(4), pp.325-340). Each row may also stay unassigned at 
+ * zero cost, which is modelled by a private dummy column per row. The shortest paths are searched by Dijkstra's 
+ * algorithm over the entries of the matrix only, thus the memory is linear in the number of entries and a search 
+ * usually stops after a few rows, as the dummy columns end most augmenting paths close to their start.
+ * @author Thorsten Wagner
+ */
+class LinearAssignment {
+	
+	private int numberOfRows;
+	private int numberOfColumns;		// Real columns, column numberOfColumns+i is the dummy column of row i
+	private int[] rowStart;
+	private int[] columns;
+	private double[] costs;
+	
+	private double[] u;					// Potentials of the rows
+	private double[] v;					// Potentials of the columns
+	private int[] columnOfRow;
+	private int[] rowOfColumn;			// -1 = free
+	
+	private double[] dist;				// Length of the shortest path to a column (reduced costs)
+	private int[] predecessorRow;		// Row before the column on the shortest path
+	private int[] scannedBy;			// Row of the search which scanned the column, -1 = not scanned
+	private int search;					// Row of the current search
+	private int[] touched;				// Columns reached by the current search
+	private int numberOfTouched;
+	private int[] heap;					// Binary min-heap of columns ordered by dist
+	private int[] heapPosition;			// Position of a column in the heap, -1 = not in the heap
+	private int heapSize;
+	
+	/**
+	 * @param numberOfColumns Number of columns
+	 * @param rowStart [i] = Index of the first entry of row i in columns and costs, [number of rows] = Number of entries
+	 * @param columns Column of each entry
+	 * @param costs Finite cost of each entry
+	 * @return [i] = Column which is assigned to row i or -1 if the row is unassigned. The sum of the costs of the 
+	 * assigned entries is minimal. Entries with positive costs are never assigned.
+	 */
+	static int[] solve(int numberOfColumns, int[] rowStart, int[] columns, double[] costs){
+		LinearAssignment lap = new LinearAssignment(numberOfColumns, rowStart, columns, costs);
+		for(int i = 0; i < lap.numberOfRows; i++){
+			lap.augment(i);
+		}
+		int[] result = new int[lap.numberOfRows];
+		for(int i = 0; i < result.length; i++){
+			result[i] = lap.columnOfRow[i] < numberOfColumns ? lap.columnOfRow[i] : -1;
+		}
+		return result;
+	}
+	
+	private LinearAssignment(int numberOfColumns, int[] rowStart, int[] columns, double[] costs){
+		this.numberOfRows = rowStart.length-1;
+		this.numberOfColumns = numberOfColumns;
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.costs = costs;
+		int n = numberOfColumns + numberOfRows;
+		u = new double[numberOfRows];
+		v = new double[n];
+		columnOfRow = new int[numberOfRows];
+		rowOfColumn = new int[n];
+		dist = new double[n];
+		predecessorRow = new int[n];
+		scannedBy = new int[n];
+		touched = new int[n];
+		heap = new int[n];
+		heapPosition = new int[n];
+		java.util.Arrays.fill(columnOfRow, -1);
+		java.util.Arrays.fill(rowOfColumn, -1);
+		java.util.Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		java.util.Arrays.fill(scannedBy, -1);
+		java.util.Arrays.fill(heapPosition, -1);
+		//Row reduction: All reduced costs c - u - v are non-negative
+		for(int i = 0; i < numberOfRows; i++){
+			double min = 0; //Dummy column
+			for(int e = rowStart[i]; e < rowStart[i+1]; e++){
+				min = Math.min(min, costs[e]);
+			}
+			u[i] = min;
+		}
+	}
+	
+	/**
+	 * Assigns the free row s by the shortest augmenting path to a free column and updates the potentials, 
+	 * so that the reduced costs stay non-negative and the assigned entries have zero reduced costs.
+	 */
+	private void augment(int s){
+		search = s;
+		numberOfTouched = 0;
+		heapSize = 0;
+		relax(s, 0);
+		int endColumn = -1;
+		while(heapSize > 0){
+			int j = pop();
+			scannedBy[j] = s;
+			if(rowOfColumn[j] == -1){
+				endColumn = j;
+				break;
+			}
+			relax(rowOfColumn[j], dist[j]);
+		}
+		
+		//Update the potentials of the scanned columns and their rows
+		double pathLength = dist[endColumn];
+		for(int k = 0; k < numberOfTouched; k++){
+			int j = touched[k];
+			if(scannedBy[j] == s && j != endColumn){
+				double delta = pathLength - dist[j];
+				v[j] -= delta;
+				u[rowOfColumn[j]] += delta;
+			}
+		}
+		u[s] += pathLength;
+		
+		//Augment along the path
+		int j = endColumn;
+		while(true){
+			int i = predecessorRow[j];
+			int previous = columnOfRow[i];
+			columnOfRow[i] = j;
+			rowOfColumn[j] = i;
+			if(i == s){
+				break;
+			}
+			j = previous;
+		}
+		
+		for(int k = 0; k < numberOfTouched; k++){
+			int t = touched[k];
+			dist[t] = Double.POSITIVE_INFINITY;
+			heapPosition[t] = -1;
+		}
+	}
+	
+	/**
+	 * Relaxes the entries of row i, which is reached with the path length d.
+	 */
+	private void relax(int i, double d){
+		for(int e = rowStart[i]; e < rowStart[i+1]; e++){
+			int j = columns[e];
+			update(j, d + costs[e] - u[i] - v[j], i);
+		}
+		int dummy = numberOfColumns + i;
+		update(dummy, d - u[i] - v[dummy], i);
+	}
+	
+	private void update(int j, double d, int row){
+		if(scannedBy[j] == search || d >= dist[j]){
+			return;
+		}
+		if(dist[j] == Double.POSITIVE_INFINITY){
+			touched[numberOfTouched++] = j;
+		}
+		dist[j] = d;
+		predecessorRow[j] = row;
+		if(heapPosition[j] == -1){
+			heapPosition[j] = heapSize;
+			heap[heapSize++] = j;
+		}
+		siftUp(heapPosition[j]);
+	}
+	
+	/**
+	 * Removes the column with the shortest path from the heap.
+	 */
+	private int pop(){
+		int top = heap[0];
+		heapPosition[top] = -1;
+		heapSize--;
+		if(heapSize > 0){
+			heap[0] = heap[heapSize];
+			heapPosition[heap[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+	
+	private void siftUp(int p){
+		int j = heap[p];
+		while(p > 0){
+			int parent = (p-1)/2;
+			if(dist[heap[parent]] <= dist[j]){
+				break;
+			}
+			heap[p] = heap[parent];
+			heapPosition[heap[p]] = p;
+			p = parent;
+		}
+		heap[p] = j;
+		heapPosition[j] = p;
+	}
+	
+	private void siftDown(int p){
+		int j = heap[p];
+		while(true){
+			int child = 2*p+1;
+			if(child >= heapSize){
+				break;
+			}
+			if(child+1 < heapSize && dist[heap[child+1]] < dist[heap[child]]){
+				child++;
+			}
+			if(dist[heap[child]] >= dist[j]){
+				break;
+			}
+			heap[p] = heap[child];
+			heapPosition[heap[p]] = p;
+			p = child;
+		}
+		heap[p] = j;
+		heapPosition[j] = p;
+	}
+}
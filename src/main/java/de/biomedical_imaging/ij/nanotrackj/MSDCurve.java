@@ -0,0 +1,384 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.util.Arrays;
+
+/**
+ * Mean squared displacement of a track for all timelags 0..maxLag, together with the sample variance 
+ * of the squared displacements and the number of displacements per timelag. Only pairs of detections which 
+ * are exactly tau frames apart are used (as in Track.getMeanSquareDisplacement()).
+ * 
+ * For long tracks and many timelags the sums are computed by FFT based correlations:
+ * With the mask m (1 if there is a detection in a frame) and the position vectors p, the sum of the squared 
+ * displacements is sum m_f m_(f+tau) (|p_(f+tau)|^2 + |p_f|^2 - 2 p_f*p_(f+tau)), i.e. a sum of correlations. The 
+ * sum of the fourth powers (for the variance) expands in the same way. Short timelags are summed directly, the 
+ * longer ones in bands [l, 4l) of timelags, each by overlapping blocks of about 16 l frames (overlap-save) with 
+ * locally centered positions. This keeps the cancellation of the large powers small and costs O(n log^2 maxLag) 
+ * instead of O(n maxLag).
+ * @author Thorsten Wagner
+ */
+public class MSDCurve {
+	
+	private double[] msd;
+	private double[] variance;
+	private int[] n;
+	
+	private MSDCurve(int maxLag){
+		msd = new double[maxLag+1];
+		variance = new double[maxLag+1];
+		n = new int[maxLag+1];
+	}
+	
+	/**
+	 * @return The largest timelag of the curve
+	 */
+	public int getMaxLag(){
+		return msd.length-1;
+	}
+	
+	/**
+	 * @param tau Timelag in frames
+	 * @return The mean squared displacement [pixel^2], NaN if there are no displacements with this timelag
+	 */
+	public double getMSD(int tau){
+		return msd[tau];
+	}
+	
+	/**
+	 * @param tau Timelag in frames
+	 * @return The sample variance of the squared displacements [pixel^4], 0 for a single displacement
+	 */
+	public double getVariance(int tau){
+		return variance[tau];
+	}
+	
+	/**
+	 * @param tau Timelag in frames
+	 * @return The sample standard deviation of the squared displacements [pixel^2]
+	 */
+	public double getStandardDeviation(int tau){
+		return Math.sqrt(variance[tau]);
+	}
+	
+	/**
+	 * @param tau Timelag in frames
+	 * @return Number of displacements with this timelag
+	 */
+	public int getN(int tau){
+		return n[tau];
+	}
+	
+	private void setMoments(int tau, double sum2, double sum4, int count){
+		n[tau] = count;
+		msd[tau] = sum2/count;
+		if(count == 0){
+			variance[tau] = Double.NaN;
+		}else if(count == 1){
+			variance[tau] = 0;
+		}else{
+			variance[tau] = Math.max(0, (sum4 - sum2*sum2/count)/(count-1));
+		}
+	}
+	
+	/**
+	 * Computes the curve. The short timelags are summed directly, the longer ones (if the track is long enough 
+	 * that this is cheaper) by FFT based correlations in bands of timelags.
+	 * @param x x coordinates [pixel]
+	 * @param y y coordinates [pixel]
+	 * @param frame Frame indices (increasing)
+	 * @param size Number of detections
+	 * @param driftx Drift in x direction [pixel / frame]
+	 * @param drifty Drift in y direction [pixel / frame]
+	 * @param maxLag Largest timelag
+	 * @return The curve for the timelags 0..maxLag
+	 */
+	static MSDCurve compute(float[] x, float[] y, int[] frame, int size, double driftx, double drifty, int maxLag){
+		int lags = Math.min(maxLag, frame[size-1]-frame[0]);
+		double[] sum2 = new double[maxLag+1];
+		double[] sum4 = new double[maxLag+1];
+		long[] count = new long[maxLag+1];
+		
+		//Direct summation is cheaper for short tracks and short timelags
+		int directLags = lags;
+		if(size > FFT_MIN_TRACK_LENGTH){
+			directLags = Math.min(lags, DIRECT_LAGS);
+		}
+		sumDirect(x, y, frame, size, driftx, drifty, 0, directLags, sum2, sum4, count);
+		int span = frame[size-1]-frame[0]+1;
+		for(int lagFrom = directLags+1; lagFrom <= lags; lagFrom = 4*lagFrom){
+			int lagTo = Math.min(lags, 4*lagFrom-1);
+			//About 12 FFTs of length L per L-lagTo frames vs. one pair per detection and timelag
+			int length = getBlockLength(lagTo, span);
+			double fftCost = FFT_COST_FACTOR*12.0*Math.ceil((double)span/(length-lagTo))*length*Math.log(length)/Math.log(2);
+			double directCost = (double)size*(lagTo-lagFrom+1);
+			if(fftCost < directCost){
+				sumFFT(x, y, frame, size, driftx, drifty, lagFrom, lagTo, sum2, sum4, count);
+			}else{
+				sumDirect(x, y, frame, size, driftx, drifty, lagFrom, lagTo, sum2, sum4, count);
+			}
+		}
+		
+		MSDCurve curve = new MSDCurve(maxLag);
+		for(int tau = 0; tau <= maxLag; tau++){
+			curve.setMoments(tau, sum2[tau], sum4[tau], (int)count[tau]);
+		}
+		return curve;
+	}
+	
+	/**
+	 * Timelags up to this value are always summed directly
+	 */
+	private static final int DIRECT_LAGS = 63;
+	
+	/**
+	 * Tracks up to this length are always summed directly
+	 */
+	private static final int FFT_MIN_TRACK_LENGTH = 1024;
+	
+	/**
+	 * Cost of one butterfly of the FFT relative to the summation of one pair of detections
+	 */
+	private static final double FFT_COST_FACTOR = 4;
+	
+	/**
+	 * @return Length (power of two) of the blocks for the timelags up to lagTo: About 4 lagTo, but not longer than the track
+	 */
+	private static int getBlockLength(int lagTo, int span){
+		int length = Integer.highestOneBit(4*lagTo-1)*2;
+		return Math.min(length, Integer.highestOneBit(span+lagTo-1)*2);
+	}
+	
+	/**
+	 * Sums the squared displacements and their squares of the timelags lagFrom..lagTo directly.
+	 */
+	static void sumDirect(float[] x, float[] y, int[] frame, int size, double driftx, double drifty, int lagFrom, int lagTo, 
+			double[] sum2, double[] sum4, long[] count){
+		for(int i = 0; i < size; i++){
+			for(int j = i; j < size && frame[j]-frame[i] <= lagTo; j++){
+				int tau = frame[j]-frame[i];
+				if(tau < lagFrom){
+					continue;
+				}
+				double dx = x[i]-x[j] - tau*driftx;
+				double dy = y[i]-y[j] - tau*drifty;
+				double d2 = dx*dx + dy*dy;
+				sum2[tau] += d2;
+				sum4[tau] += d2*d2;
+				count[tau]++;
+			}
+		}
+	}
+	
+	/**
+	 * Sums the squared displacements and their squares of the timelags lagFrom..lagTo by FFT based correlations.
+	 * The track is split into blocks (overlap-save): A block of length L = 4*lagTo (power of two) contains the first 
+	 * detections of L-lagTo frames and the second detections up to lagTo frames later, thus there is no circular overlap. 
+	 * The positions are centered per block, the ratio of the block length to the timelags is bounded and so is 
+	 * the cancellation of the large powers.
+	 */
+	static void sumFFT(float[] x, float[] y, int[] frame, int size, double driftx, double drifty, int lagFrom, int lagTo, 
+			double[] sum2, double[] sum4, long[] count){
+		int span = frame[size-1]-frame[0]+1;
+		int length = getBlockLength(lagTo, span);
+		int hop = length-lagTo;
+		
+		double[][] uRe = new double[5][length];
+		double[][] uIm = new double[5][length];
+		double[][] vRe = new double[5][length];
+		double[][] vIm = new double[5][length];
+		double[] nRe = new double[length];
+		double[] nIm = new double[length];
+		double[] sRe = new double[length];
+		double[] sIm = new double[length];
+		double[] specU = new double[20];
+		double[] specV = new double[20];
+		
+		int first = 0; //Index of the first detection of the block
+		for(int start = 0; start < span; start += hop){
+			while(first < size && frame[first]-frame[0] < start){
+				first++;
+			}
+			int end = first;
+			while(end < size && frame[end]-frame[0] < start+length){
+				end++;
+			}
+			if(end == first){
+				continue;
+			}
+			//Drift corrected and centered positions
+			double meanX = 0;
+			double meanY = 0;
+			for(int i = first; i < end; i++){
+				meanX += x[i] + (frame[i]-frame[0])*driftx;
+				meanY += y[i] + (frame[i]-frame[0])*drifty;
+			}
+			meanX /= end-first;
+			meanY /= end-first;
+			
+			//Ten real sequences, packed pairwise into five complex sequences: 
+			//(m, m|p|^2), (m|p|^4, mx), (my, mx^2), (my^2, mxy), (m|p|^2 x, m|p|^2 y)
+			//u contains the first detections of the pairs (the first hop frames), v the second detections
+			for(int k = 0; k < 5; k++){
+				Arrays.fill(uRe[k], 0);
+				Arrays.fill(uIm[k], 0);
+				Arrays.fill(vRe[k], 0);
+				Arrays.fill(vIm[k], 0);
+			}
+			for(int i = first; i < end; i++){
+				int f = frame[i]-frame[0];
+				double px = x[i] + f*driftx - meanX;
+				double py = y[i] + f*drifty - meanY;
+				double r2 = px*px + py*py;
+				f -= start;
+				fillPacked(vRe, vIm, f, px, py, r2);
+				if(f < hop){
+					fillPacked(uRe, uIm, f, px, py, r2);
+				}
+			}
+			for(int k = 0; k < 5; k++){
+				fft(uRe[k], uIm[k], false);
+				fft(vRe[k], vIm[k], false);
+			}
+			
+			//Spectra of the sums: N and (sum of d^2) + i (sum of d^4)
+			for(int k = 0; k < length; k++){
+				unpack(uRe, uIm, k, specU);
+				unpack(vRe, vIm, k, specV);
+				final int M = 0, R2 = 1, R4 = 2, X = 3, Y = 4, X2 = 5, Y2 = 6, XY = 7, R2X = 8, R2Y = 9;
+				nRe[k] = crossRe(specU, M, specV, M);
+				nIm[k] = crossIm(specU, M, specV, M);
+				
+				double s2 = crossRe(specU, M, specV, R2) + crossRe(specU, R2, specV, M) 
+						- 2*(crossRe(specU, X, specV, X) + crossRe(specU, Y, specV, Y));
+				double s2i = crossIm(specU, M, specV, R2) + crossIm(specU, R2, specV, M) 
+						- 2*(crossIm(specU, X, specV, X) + crossIm(specU, Y, specV, Y));
+				double s4 = crossRe(specU, M, specV, R4) + crossRe(specU, R4, specV, M) + 2*crossRe(specU, R2, specV, R2) 
+						+ 4*(crossRe(specU, X2, specV, X2) + 2*crossRe(specU, XY, specV, XY) + crossRe(specU, Y2, specV, Y2))
+						- 4*(crossRe(specU, X, specV, R2X) + crossRe(specU, Y, specV, R2Y) + crossRe(specU, R2X, specV, X) + crossRe(specU, R2Y, specV, Y));
+				double s4i = crossIm(specU, M, specV, R4) + crossIm(specU, R4, specV, M) + 2*crossIm(specU, R2, specV, R2) 
+						+ 4*(crossIm(specU, X2, specV, X2) + 2*crossIm(specU, XY, specV, XY) + crossIm(specU, Y2, specV, Y2))
+						- 4*(crossIm(specU, X, specV, R2X) + crossIm(specU, Y, specV, R2Y) + crossIm(specU, R2X, specV, X) + crossIm(specU, R2Y, specV, Y));
+				//Both inverse transforms are real, thus they are packed into one: S2 + i S4
+				sRe[k] = s2 - s4i;
+				sIm[k] = s2i + s4;
+			}
+			fft(nRe, nIm, true);
+			fft(sRe, sIm, true);
+			for(int tau = lagFrom; tau <= lagTo; tau++){
+				count[tau] += Math.round(nRe[tau]/length);
+				sum2[tau] += sRe[tau]/length;
+				sum4[tau] += sIm[tau]/length;
+			}
+		}
+	}
+	
+	private static void fillPacked(double[][] re, double[][] im, int f, double px, double py, double r2){
+		re[0][f] = 1;
+		im[0][f] = r2;
+		re[1][f] = r2*r2;
+		im[1][f] = px;
+		re[2][f] = py;
+		im[2][f] = px*px;
+		re[3][f] = py*py;
+		im[3][f] = px*py;
+		re[4][f] = r2*px;
+		im[4][f] = r2*py;
+	}
+	
+	/**
+	 * Separates the spectra of the two real sequences of each packed sequence at frequency k: 
+	 * U = (Z_k + conj(Z_-k))/2, V = (Z_k - conj(Z_-k))/(2i)
+	 * @param spec [2*s] = real part, [2*s+1] = imaginary part of the spectrum of sequence s
+	 */
+	private static void unpack(double[][] re, double[][] im, int k, double[] spec){
+		int length = re[0].length;
+		int mk = (length-k) & (length-1);
+		for(int p = 0; p < 5; p++){
+			spec[4*p] = (re[p][k] + re[p][mk])/2;
+			spec[4*p+1] = (im[p][k] - im[p][mk])/2;
+			spec[4*p+2] = (im[p][k] + im[p][mk])/2;
+			spec[4*p+3] = -(re[p][k] - re[p][mk])/2;
+		}
+	}
+	
+	/**
+	 * @return Real part of conj(U_a) * V_b
+	 */
+	private static double crossRe(double[] specU, int a, double[] specV, int b){
+		return specU[2*a]*specV[2*b] + specU[2*a+1]*specV[2*b+1];
+	}
+	
+	/**
+	 * @return Imaginary part of conj(U_a) * V_b
+	 */
+	private static double crossIm(double[] specU, int a, double[] specV, int b){
+		return specU[2*a]*specV[2*b+1] - specU[2*a+1]*specV[2*b];
+	}
+	
+	/**
+	 * In-place iterative radix-2 FFT without normalization.
+	 * @param re Real parts, the length has to be a power of two
+	 * @param im Imaginary parts
+	 * @param inverse True for the inverse transform (positive exponent)
+	 */
+	static void fft(double[] re, double[] im, boolean inverse){
+		int n = re.length;
+		for(int i = 1, j = 0; i < n; i++){
+			int bit = n >> 1;
+			for(; (j & bit) != 0; bit >>= 1){
+				j ^= bit;
+			}
+			j ^= bit;
+			if(i < j){
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		double[] cos = new double[n/2];
+		double[] sin = new double[n/2];
+		for(int k = 0; k < n/2; k++){
+			cos[k] = Math.cos(2*Math.PI*k/n);
+			sin[k] = (inverse ? 1 : -1)*Math.sin(2*Math.PI*k/n);
+		}
+		for(int len = 2; len <= n; len <<= 1){
+			int step = n/len;
+			for(int i = 0; i < n; i += len){
+				for(int j = 0; j < len/2; j++){
+					int a = i+j;
+					int b = i+j+len/2;
+					double wRe = cos[j*step];
+					double wIm = sin[j*step];
+					double vRe = re[b]*wRe - im[b]*wIm;
+					double vIm = re[b]*wIm + im[b]*wRe;
+					re[b] = re[a] - vRe;
+					im[b] = im[a] - vIm;
+					re[a] += vRe;
+					im[a] += vIm;
+				}
+			}
+		}
+	}
+
+}
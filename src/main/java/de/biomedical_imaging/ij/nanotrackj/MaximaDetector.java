@@ -0,0 +1,324 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.awt.Polygon;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Detects local maxima of bright spots on a dark background. It is a faster alternative to 
+ * ij.plugin.filter.MaximumFinder, which sorts all pixels and flood fills the area of each maximum. Here, the 
+ * maxima are found by three local tests:
+ * <ol>
+ * <li>Threshold: The pixel is brighter than the minimum of the image plus the tolerance.</li>
+ * <li>Non-maximum suppression: No pixel in the (2 suppressionRadius + 1)^2 neighborhood is brighter. On plateaus, 
+ * only the first pixel in raster order remains, which is afterwards moved to the pixel of the plateau next to 
+ * its center.</li>
+ * <li>Prominence: The pixel exceeds the minimum of the (2 backgroundRadius + 1)^2 neighborhood (local background) 
+ * by at least the tolerance.</li>
+ * </ol>
+ * The prominence is a local approximation of the tolerance of the MaximumFinder, which measures the depth of the 
+ * saddle to the next higher maximum. Both agree as long as the spots are separated by more than the background 
+ * radius. Spots which overlap that much are reported as a single maximum only if they are closer than the 
+ * suppression radius.
+ * 
+ * 8-bit pixels are read directly. RGB pixels are converted into their weighted luminance (like 
+ * ColorProcessor.getPixelValue()) in a buffer which is reused for the next frame, thus a detector must not be 
+ * shared between threads.
+ * @author Thorsten Wagner
+ */
+public class MaximaDetector {
+	
+	private int suppressionRadius;
+	private int backgroundRadius;
+	private byte[] bytePixels;	// Pixels of the current frame (8-bit)
+	private int[] values;		// Luminance of the current frame (RGB)
+	private int[] plateau;		// Indices of the pixels of a plateau
+	private boolean[] visited;	// Marks the pixels of the current plateau
+	
+	/**
+	 * @param suppressionRadius 1 = 3x3 or 2 = 5x5 non-maximum suppression
+	 * @param backgroundRadius Half width of the window for the local background [pixel]
+	 */
+	public MaximaDetector(int suppressionRadius, int backgroundRadius){
+		if(suppressionRadius < 1 || suppressionRadius > 2){
+			throw new IllegalArgumentException("The suppression radius has to be 1 (3x3) or 2 (5x5)");
+		}
+		this.suppressionRadius = suppressionRadius;
+		this.backgroundRadius = Math.max(backgroundRadius, suppressionRadius);
+	}
+	
+	/**
+	 * Finds the maxima of an image.
+	 * @param ip 8-bit or RGB image
+	 * @param tolerance Minimum prominence of a maximum above the local background
+	 * @param excludeOnEdges If true, maxima are excluded if a pixel of the image border within the background window 
+	 * is higher than the maximum minus the tolerance (approximates the same option of the MaximumFinder).
+	 * @return Polygon of all maxima
+	 */
+	public Polygon getMaxima(ImageProcessor ip, double tolerance, boolean excludeOnEdges){
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		int min = readValues(ip);
+		int tol = (int)Math.ceil(tolerance);
+		int threshold = min + tol;
+		Polygon maxima = new Polygon();
+		
+		//Threshold scan, only the few pixels above the threshold are tested further
+		if(bytePixels != null){
+			byte[] pixels = bytePixels;
+			for(int y = 0; y < height; y++){
+				int offset = y*width;
+				for(int x = 0; x < width; x++){
+					int v = pixels[offset+x]&0xff;
+					if(v >= threshold){
+						testCandidate(x, y, v, tol, excludeOnEdges, width, height, maxima);
+					}
+				}
+			}
+		}
+		else{
+			int[] pixels = values;
+			for(int y = 0; y < height; y++){
+				int offset = y*width;
+				for(int x = 0; x < width; x++){
+					int v = pixels[offset+x];
+					if(v >= threshold){
+						testCandidate(x, y, v, tol, excludeOnEdges, width, height, maxima);
+					}
+				}
+			}
+		}
+		bytePixels = null;
+		return maxima;
+	}
+	
+	/**
+	 * Applies the non-maximum suppression, the prominence test and the edge test to a pixel above the threshold and 
+	 * adds it to the maxima if it passes.
+	 */
+	private void testCandidate(int x, int y, int v, int tol, boolean excludeOnEdges, int width, int height, Polygon maxima){
+		int plateauFlag = suppress(x, y, v, width, height);
+		if(plateauFlag < 0){
+			return;
+		}
+		if(!isProminent(x, y, v, tol, width, height)){
+			return;
+		}
+		if(excludeOnEdges && touchesEdge(x, y, v, tol, width, height)){
+			return;
+		}
+		int index = y*width + x;
+		if(plateauFlag > 0){
+			index = getPlateauCenter(index, v, width, height);
+			if(index < 0){
+				return;
+			}
+		}
+		maxima.addPoint(index%width, index/width);
+	}
+	
+	/**
+	 * Reads the pixels of the image. 8-bit pixels are used directly, RGB pixels are converted into the buffer.
+	 * @return Minimum of the image
+	 */
+	private int readValues(ImageProcessor ip){
+		int n = ip.getWidth()*ip.getHeight();
+		if(visited == null || visited.length < n){
+			visited = new boolean[n];
+		}
+		int min = Integer.MAX_VALUE;
+		if(ip instanceof ByteProcessor){
+			bytePixels = (byte[])ip.getPixels();
+			for(int i = 0; i < n && min > 0; i++){ //Stops early on a black background
+				int v = bytePixels[i]&0xff;
+				if(v < min){
+					min = v;
+				}
+			}
+		}
+		else if(ip instanceof ColorProcessor){
+			if(values == null || values.length < n){
+				values = new int[n];
+			}
+			int[] pixels = (int[])ip.getPixels();
+			//Same weights as ColorProcessor.getPixelValue()
+			double[] w = ((ColorProcessor)ip).getRGBWeights();
+			if(w == null){
+				w = ColorProcessor.getWeightingFactors();
+			}
+			float rw = (float)w[0];
+			float gw = (float)w[1];
+			float bw = (float)w[2];
+			for(int i = 0; i < n; i++){
+				int c = pixels[i];
+				int v = (int)(((c&0xff0000)>>16)*rw + ((c&0xff00)>>8)*gw + (c&0xff)*bw);
+				values[i] = v;
+				min = Math.min(min, v);
+			}
+		}
+		else{
+			throw new IllegalArgumentException("The maxima detector only supports 8-bit and RGB images");
+		}
+		return min;
+	}
+	
+	private int get(int i){
+		return bytePixels != null ? bytePixels[i]&0xff : values[i];
+	}
+	
+	/**
+	 * Non-maximum suppression. A pixel survives if no neighbor is higher and no neighbor before it in raster 
+	 * order has the same value.
+	 * @return -1 if suppressed, 1 if it survives but an equal neighbor exists (plateau), 0 otherwise
+	 */
+	private int suppress(int x, int y, int v, int width, int height){
+		int r = suppressionRadius;
+		int xmin = Math.max(0, x-r);
+		int xmax = Math.min(width-1, x+r);
+		int ymin = Math.max(0, y-r);
+		int ymax = Math.min(height-1, y+r);
+		int result = 0;
+		for(int yi = ymin; yi <= ymax; yi++){
+			int offset = yi*width;
+			for(int xi = xmin; xi <= xmax; xi++){
+				int vi = get(offset+xi);
+				if(vi > v){
+					return -1;
+				}
+				if(vi == v && (yi != y || xi != x)){
+					if(yi < y || (yi == y && xi < x)){
+						return -1;
+					}
+					result = 1;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return True if the pixel exceeds the minimum of the background window by the tolerance
+	 */
+	private boolean isProminent(int x, int y, int v, int tol, int width, int height){
+		int r = backgroundRadius;
+		int xmin = Math.max(0, x-r);
+		int xmax = Math.min(width-1, x+r);
+		int ymin = Math.max(0, y-r);
+		int ymax = Math.min(height-1, y+r);
+		int min = v;
+		for(int yi = ymin; yi <= ymax; yi++){
+			int offset = yi*width;
+			for(int xi = xmin; xi <= xmax; xi++){
+				min = Math.min(min, get(offset+xi));
+			}
+		}
+		return v - min >= tol;
+	}
+	
+	/**
+	 * @return True if a border pixel within the background window is higher than v - tolerance
+	 */
+	private boolean touchesEdge(int x, int y, int v, int tol, int width, int height){
+		int r = backgroundRadius;
+		int xmin = Math.max(0, x-r);
+		int xmax = Math.min(width-1, x+r);
+		int ymin = Math.max(0, y-r);
+		int ymax = Math.min(height-1, y+r);
+		int level = v - tol;
+		if(ymin == 0 || ymax == height-1){
+			for(int xi = xmin; xi <= xmax; xi++){
+				if((ymin == 0 && get(xi) > level) || (ymax == height-1 && get(ymax*width+xi) > level)){
+					return true;
+				}
+			}
+		}
+		if(xmin == 0 || xmax == width-1){
+			for(int yi = ymin; yi <= ymax; yi++){
+				if((xmin == 0 && get(yi*width) > level) || (xmax == width-1 && get(yi*width+xmax) > level)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Collects the (8-connected) plateau of a maximum.
+	 * @return Index of the pixel of the plateau which is next to its center or -1 if the plateau does not start 
+	 * at the given pixel (it was already found by a pixel before it in raster order)
+	 */
+	private int getPlateauCenter(int start, int v, int width, int height){
+		if(plateau == null){
+			plateau = new int[64];
+		}
+		int n = 0;
+		plateau[n++] = start;
+		visited[start] = true;
+		double sumx = 0;
+		double sumy = 0;
+		for(int k = 0; k < n; k++){
+			int x = plateau[k]%width;
+			int y = plateau[k]/width;
+			sumx += x;
+			sumy += y;
+			for(int yi = Math.max(0, y-1); yi <= Math.min(height-1, y+1); yi++){
+				for(int xi = Math.max(0, x-1); xi <= Math.min(width-1, x+1); xi++){
+					int i = yi*width + xi;
+					if(!visited[i] && get(i) == v){
+						if(n == plateau.length){
+							int[] larger = new int[2*n];
+							System.arraycopy(plateau, 0, larger, 0, n);
+							plateau = larger;
+						}
+						visited[i] = true;
+						plateau[n++] = i;
+					}
+				}
+			}
+		}
+		double cx = sumx/n;
+		double cy = sumy/n;
+		int center = start;
+		double minDist = Double.MAX_VALUE;
+		boolean isFirst = true;
+		for(int k = 0; k < n; k++){
+			int i = plateau[k];
+			isFirst = isFirst && i >= start;
+			double dx = i%width - cx;
+			double dy = i/width - cy;
+			double dist = dx*dx + dy*dy;
+			if(dist < minDist){
+				minDist = dist;
+				center = i;
+			}
+			visited[i] = false;
+		}
+		return isFirst ? center : -1;
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.util.Arrays;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Mean filter with a square kernel of (2 radius + 1)^2 pixels. It is computed by running sums in x and y direction 
+ * (separable), thus the costs per pixel do not depend on the radius. Outside the image, the pixels of the border are 
+ * repeated. 8-bit and RGB images (each channel) are supported. The filtered image is written into buffers which are 
+ * reused for the next frame, thus a filter must not be shared between threads.
+ * @author Thorsten Wagner
+ */
+public class MeanFilter {
+	
+	private int[] rowSums;			// Horizontal running sums of one channel
+	private int[] columnSums;		// Vertical running sums of the horizontal sums
+	private ImageProcessor output;
+	
+	/**
+	 * Filters an image. The result is valid until the next call.
+	 * @param ip 8-bit or RGB image
+	 * @param radius Radius of the kernel (half width of the square)
+	 * @return The filtered image (same type as ip)
+	 */
+	public ImageProcessor filter(ImageProcessor ip, int radius){
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		if(rowSums == null || rowSums.length < width*height){
+			rowSums = new int[width*height];
+		}
+		if(columnSums == null || columnSums.length < width){
+			columnSums = new int[width];
+		}
+		if(ip instanceof ByteProcessor){
+			if(!(output instanceof ByteProcessor) || output.getWidth() != width || output.getHeight() != height){
+				output = new ByteProcessor(width, height);
+			}
+			byte[] in = (byte[])ip.getPixels();
+			byte[] out = (byte[])output.getPixels();
+			for(int y = 0; y < height; y++){
+				int offset = y*width;
+				int sum = 0;
+				for(int k = -radius; k <= radius; k++){
+					sum += in[offset+clamp(k, width)]&0xff;
+				}
+				for(int x = 0; x < width; x++){
+					rowSums[offset+x] = sum;
+					sum += (in[offset+clamp(x+radius+1, width)]&0xff) - (in[offset+clamp(x-radius, width)]&0xff);
+				}
+			}
+			sumColumns(width, height, radius, out, null, 0);
+		}
+		else if(ip instanceof ColorProcessor){
+			if(!(output instanceof ColorProcessor) || output.getWidth() != width || output.getHeight() != height){
+				output = new ColorProcessor(width, height);
+			}
+			int[] in = (int[])ip.getPixels();
+			int[] out = (int[])output.getPixels();
+			Arrays.fill(out, 0xff000000);
+			for(int shift = 0; shift <= 16; shift += 8){
+				for(int y = 0; y < height; y++){
+					int offset = y*width;
+					int sum = 0;
+					for(int k = -radius; k <= radius; k++){
+						sum += (in[offset+clamp(k, width)]>>shift)&0xff;
+					}
+					for(int x = 0; x < width; x++){
+						rowSums[offset+x] = sum;
+						sum += ((in[offset+clamp(x+radius+1, width)]>>shift)&0xff) - ((in[offset+clamp(x-radius, width)]>>shift)&0xff);
+					}
+				}
+				sumColumns(width, height, radius, null, out, shift);
+			}
+		}
+		else{
+			throw new IllegalArgumentException("The mean filter only supports 8-bit and RGB images");
+		}
+		return output;
+	}
+	
+	/**
+	 * Sums the horizontal sums in y direction and writes the rounded means into a byte image or a channel of a RGB image.
+	 */
+	private void sumColumns(int width, int height, int radius, byte[] byteOut, int[] rgbOut, int shift){
+		int n = (2*radius+1)*(2*radius+1);
+		for(int x = 0; x < width; x++){
+			columnSums[x] = 0;
+		}
+		for(int k = -radius; k <= radius; k++){
+			int offset = clamp(k, height)*width;
+			for(int x = 0; x < width; x++){
+				columnSums[x] += rowSums[offset+x];
+			}
+		}
+		for(int y = 0; y < height; y++){
+			int offset = y*width;
+			int addOffset = clamp(y+radius+1, height)*width;
+			int removeOffset = clamp(y-radius, height)*width;
+			for(int x = 0; x < width; x++){
+				int mean = (2*columnSums[x]+n)/(2*n); //Rounded
+				if(byteOut != null){
+					byteOut[offset+x] = (byte)mean;
+				}
+				else{
+					rgbOut[offset+x] |= mean<<shift;
+				}
+				columnSums[x] += rowSums[addOffset+x] - rowSums[removeOffset+x];
+			}
+		}
+	}
+	
+	private static int clamp(int i, int length){
+		return Math.max(0, Math.min(i, length-1));
+	}
+
+}
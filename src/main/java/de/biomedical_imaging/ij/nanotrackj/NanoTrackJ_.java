@@ -28,8 +28,13 @@ import java.awt.AWTEvent;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Polygon;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.swing.plaf.basic.BasicScrollPaneUI.HSBChangeListener;
 
@@ -49,7 +54,6 @@ import ij.measure.ResultsTable;
 import ij.plugin.filter.Analyzer;
 import ij.plugin.filter.MaximumFinder;
 import ij.plugin.filter.PlugInFilter;
-import ij.plugin.filter.RankFilters;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
@@ -72,6 +76,7 @@ public class NanoTrackJ_ implements PlugInFilter {
 	private boolean doDrawtracks=false;											// If true, the particle trajectories are plotted in an overlay 
 	private int meanFilterSize =3;												// Maximum-Dialog: Size of the mean filter
 	private int tolerance=15;													// Maximum-Dialog: Tolerance of Find Maxima Algorithm
+	private boolean useFastMaxima = false;										// Maximum-Dialog: MaximaDetector instead of the IJ MaximumFinder
 	private double minSize=70; 													// Minimal expected particle size in [nm]
 	private boolean useWalker=true;												// If true, maximum likelihood estimation is used
 	private String centerMethods[] = {"Blob","Maxima","Maxima & Gaussian Fit"};  // All available center methods
@@ -79,13 +84,40 @@ public class NanoTrackJ_ implements PlugInFilter {
 	public String dcEstMethods[] = {"Regression","Covariance"}; //,"Covariance+Kalman"};//,"Maximum"};
 	public static final int DC_REG = 0, DC_COV = 1, DC_COVKAL = 2;
 	private String dcEstimator=dcEstMethods[1];									// Selected Diffusion Coefficient Estimator
+	private String linkerMethods[] = {"Unambiguous links only","Global optimal assignment (LAP)"}; // All available linkers, same order as TrackSynthesizer.LINKER_*
+	private String linkerChoice=linkerMethods[0];								// Selected linker
+	private int driftWindow = 0;												// Half width of the window of the time-resolved drift, 0 = global linear drift
+	private int maxGap = 0;														// Maximum number of frames without detection which are bridged by the linker
 	private double radius = 15;													// Search Radius for particle tracking
 	private String savepath = IJ.getDirectory("temp") + "IJ_NTA_OLDSETTINGS.txt";
 	private Overlay trackOverlay;												// The overlay where tracks are drawn.
 	private String centerMethodChoice=centerMethods[1];
 	private int maxWalkerHistogrammDiameter = 0;								// The maximum diameter for the walker method
+	private int walkerBootstrapReplicates = 0;									// Number of bootstrap replicates for the confidence bands of the walker method, 0 = no bands
+	private boolean useWalkerAcceleration = false;								// If true, the EM iterations of the walker method are accelerated by SQUAREM
+	private boolean useWalkerMultiResolution = false;							// If true, the walker method refines a coarse radius grid (faster, less accurate)
 	private static NanoTrackJ_ instance = null;
 	private boolean useKalman = false; //
+	private StreamingWalkerEstimator streamingWalker = null;					// Size distribution during the analysis (WM only)
+	private IFinishedTrackListener streamingWalkerListener = null;
+	private static final int STREAMING_WALKER_UPDATE_INTERVAL = 100;			// [frames]
+	private static final int DETECTION_FRAMES_PER_THREAD = 2;					// Frames which are detected ahead of the linker per thread
+	private static final int GAUSS_FIT_HALF_WIDTH = 4;							// Half width of the window of the gaussian fit [pixel]
+	private ThreadLocal<MeanFilter> meanFilters = new ThreadLocal<MeanFilter>(){ // Mean filter with reused buffers per detection thread
+		@Override
+		protected MeanFilter initialValue() {
+			return new MeanFilter();
+		}
+	};
+	private static final int MAXIMA_SUPPRESSION_RADIUS = 1;						// 3x3 non-maximum suppression of the fast maxima detection
+	private static final int MAXIMA_BACKGROUND_RADIUS = 6;						// Half width of the local background window of the fast maxima detection [pixel]
+	private ThreadLocal<MaximaDetector> maximaDetectors = new ThreadLocal<MaximaDetector>(){ // Fast maxima detection per detection thread
+		@Override
+		protected MaximaDetector initialValue() {
+			return new MaximaDetector(MAXIMA_SUPPRESSION_RADIUS, MAXIMA_BACKGROUND_RADIUS);
+		}
+	};
+	private GaussianFitter gaussianFitter = new GaussianFitter(GAUSS_FIT_HALF_WIDTH); // Sequential, the frames are already detected in parallel
 	
 	/**
 	 * singlton pattern
@@ -159,7 +191,7 @@ public class NanoTrackJ_ implements PlugInFilter {
 		saveSettings();
 		
 		
-		return STACK_REQUIRED | DOES_8G | DOES_RGB | DOES_STACKS;
+		return STACK_REQUIRED | DOES_8G | DOES_RGB | NO_CHANGES;
 	}
 	
 	/**
@@ -168,6 +200,9 @@ public class NanoTrackJ_ implements PlugInFilter {
 	private void saveSettings(){
 		Prefs.set("nanotrackj.centerMethodChoice", centerMethodChoice);
 		Prefs.set("nanotrackj.dcEstimator", dcEstimator);
+		Prefs.set("nanotrackj.linkerChoice", linkerChoice);
+		Prefs.set("nanotrackj.maxGap", maxGap);
+		Prefs.set("nanotrackj.driftWindow", driftWindow);
 		Prefs.set("nanotrackj.radius", radius);
 		Prefs.set("nanotrackj.minSize", minSize);
 		Prefs.set("nanotrackj.minTrackLength", minTrackLength);
@@ -180,8 +215,12 @@ public class NanoTrackJ_ implements PlugInFilter {
 		Prefs.set("nanotrackj.doDrawtracks", doDrawtracks);
 		Prefs.set("nanotrackj.useWalker", useWalker);
 		Prefs.set("nanotrackj.maxWalkerHistogrammDiameter", maxWalkerHistogrammDiameter);
+		Prefs.set("nanotrackj.walkerBootstrapReplicates", walkerBootstrapReplicates);
+		Prefs.set("nanotrackj.useWalkerAcceleration", useWalkerAcceleration);
+		Prefs.set("nanotrackj.useWalkerMultiResolution", useWalkerMultiResolution);
 		Prefs.set("nanotrackj.maxdialog.mean", meanFilterSize);
 		Prefs.set("nanotrackj.maxdialog.tolerance", tolerance);
+		Prefs.set("nanotrackj.maxdialog.fast", useFastMaxima);
 		Prefs.savePreferences();
 	}
 	
@@ -197,6 +236,7 @@ public class NanoTrackJ_ implements PlugInFilter {
 		GenericDialog gd = new GenericDialog("NanoTrackJ");
 		gd.addChoice("Center estimator", centerMethods, centerMethodChoice);
 		gd.addChoice("Diffusion coefficient estimator", dcEstMethods, dcEstimator);
+		gd.addChoice("Linking", linkerMethods, linkerChoice);
 		gd.addNumericField("Search radius [Pixel]", radius, 2);
 		gd.addNumericField("Min. exp. particle size [nm]", minSize, 2);
 		gd.addNumericField("Min. number of steps per track", minTrackLength, 0);
@@ -209,6 +249,11 @@ public class NanoTrackJ_ implements PlugInFilter {
 		gd.addCheckbox("Draw tracks", doDrawtracks);
 		gd.addCheckbox("Size distribution estimation by Walker's method (WM)", useWalker);
 		gd.addNumericField("Maximum Diameter (WM only, 0 = auto)", maxWalkerHistogrammDiameter, 0);
+		gd.addNumericField("Bootstrap replicates (WM only, 0 = no bands)", walkerBootstrapReplicates, 0);
+		gd.addCheckbox("Accelerated EM (WM only)", useWalkerAcceleration);
+		gd.addCheckbox("Multi-resolution grid (WM only, faster but coarser)", useWalkerMultiResolution);
+		gd.addNumericField("Max. gap [frames]", maxGap, 0);
+		gd.addNumericField("Drift window [frames] (0 = global drift)", driftWindow, 0);
 		gd.addHelp("http://fiji.sc/NanoTrackJ");
 
 		NTADialogListener ntaListener = new NTADialogListener();
@@ -221,6 +266,7 @@ public class NanoTrackJ_ implements PlugInFilter {
 		
 		centerMethodChoice = gd.getNextChoice();
 		dcEstimator = gd.getNextChoice();
+		linkerChoice = gd.getNextChoice();
 		radius = gd.getNextNumber();
 		minSize = (int)gd.getNextNumber();
 		minTrackLength = (int)gd.getNextNumber();
@@ -234,7 +280,14 @@ public class NanoTrackJ_ implements PlugInFilter {
 		doDrawtracks = gd.getNextBoolean();
 		useWalker = gd.getNextBoolean();
 		maxWalkerHistogrammDiameter = (int)gd.getNextNumber();
-		trackSyn = new TrackSynthesizer(radius);
+		walkerBootstrapReplicates = (int)gd.getNextNumber();
+		useWalkerAcceleration = gd.getNextBoolean();
+		useWalkerMultiResolution = gd.getNextBoolean();
+		maxGap = Math.max(0, (int)gd.getNextNumber());
+		driftWindow = Math.max(0, (int)gd.getNextNumber());
+		AllTracks.getInstance().setDriftWindow(driftWindow);
+		trackSyn = new TrackSynthesizer(radius, getLinkerType());
+		trackSyn.setMaxGap(maxGap);
 		
 		
 		
@@ -245,6 +298,9 @@ public class NanoTrackJ_ implements PlugInFilter {
 		//Read Settings
 		centerMethodChoice = Prefs.get("nanotrackj.centerMethodChoice", centerMethodChoice);
 		dcEstimator = Prefs.get("nanotrackj.dcEstimator", dcEstimator);
+		linkerChoice = Prefs.get("nanotrackj.linkerChoice", linkerChoice);
+		maxGap = (int)Prefs.get("nanotrackj.maxGap", 0);
+		driftWindow = (int)Prefs.get("nanotrackj.driftWindow", 0);
 		radius = Prefs.get("nanotrackj.radius", 12.58);
 		minSize = Prefs.get("nanotrackj.minSize", minSize);
 		minTrackLength = (int)Prefs.get("nanotrackj.minTrackLength", minTrackLength);
@@ -257,17 +313,103 @@ public class NanoTrackJ_ implements PlugInFilter {
 		doDrawtracks = Prefs.get("nanotrackj.doDrawtracks",false);
 		useWalker =  Prefs.get("nanotrackj.useWalker",useWalker);
 		maxWalkerHistogrammDiameter = (int)Prefs.get("nanotrackj.maxWalkerHistogrammDiameter",800);
+		walkerBootstrapReplicates = (int)Prefs.get("nanotrackj.walkerBootstrapReplicates",0);
+		useWalkerAcceleration = Prefs.get("nanotrackj.useWalkerAcceleration",false);
+		useWalkerMultiResolution = Prefs.get("nanotrackj.useWalkerMultiResolution",false);
 		meanFilterSize = (int)Prefs.get("nanotrackj.maxdialog.mean", 3);
 		tolerance = (int)Prefs.get("nanotrackj.maxdialog.tolerance", 15);
+		useFastMaxima = Prefs.get("nanotrackj.maxdialog.fast", false);
 	}
 	
+	/**
+	 * Analyzes the whole stack. The spots of the frames are detected in parallel (see detectBlobs()) while a single 
+	 * consumer links them in frame order. At most DETECTION_FRAMES_PER_THREAD frames per thread are detected ahead 
+	 * of the linker, thus the memory is bounded. If the detection of a frame fails, the error is reported and 
+	 * the partially linked tracks are discarded.
+	 */
 	@Override
 	public void run(ImageProcessor ip) {
 		IJ.showStatus("Tracking...");
-	    IJ.showProgress(ip.getSliceNumber(), impStack.getStackSize());
+		impStack.deleteRoi();
+		startStreamingWalker();
+		int stackSize = impStack.getStackSize();
+		int threads = Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ArrayDeque<Future<ArrayList<Blob>>> detections = new ArrayDeque<Future<ArrayList<Blob>>>();
+		int nextSlice = 1;
+		boolean completed = false;
+		try{
+			for(int slice = 1; slice <= stackSize; slice++){
+				while(nextSlice <= stackSize && detections.size() < threads*DETECTION_FRAMES_PER_THREAD){
+					detections.add(pool.submit(new DetectionTask(nextSlice)));
+					nextSlice++;
+				}
+				ArrayList<Blob> blobs = detections.poll().get();
+				IJ.showProgress(slice, stackSize);
+				
+				//Update Tracks
+				trackSyn.updateTracks(blobs, slice);
+				if(doDrawtracks){
+					drawTracks(AllTracks.getInstance(),slice);
+				}
+				if(streamingWalker != null && slice%STREAMING_WALKER_UPDATE_INTERVAL==0){
+					updateStreamingWalker(slice);
+				}
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			IJ.log("Tracking was interrupted");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			IJ.handleException(e.getCause());
+		} finally{
+			pool.shutdownNow();
+			stopStreamingWalker();
+			if(!completed){
+				//Discard the tracks which were linked up to the failed frame
+				AllTracks.getInstance().reset();
+				IJ.showProgress(1.0);
+				IJ.showStatus("");
+			}
+		}
+		if(!completed){
+			return;
+		}
+		
+		//The last frame was analyzed...
+		trackSyn.archiveOpenTracks(); //Close all open tracks
+		IJ.showStatus("Estimate diffusion coefficients...");
+		Track.summarize(AllTracks.getInstance().getFinishedTracks(), doCorrectDrift, useKalman, minTrackLength,
+				Runtime.getRuntime().availableProcessors());
+		
+		if(validTrackExists(AllTracks.getInstance().getFinishedTracks())){
+		
+			if(useWalker==false){
+				plotDiffCoeffDistribution(AllTracks.getInstance().getFinishedTracks());
+			}
+			plotSizeDistribution(AllTracks.getInstance().getFinishedTracks());
+			if(impStack.getType()==ImagePlus.COLOR_RGB){
+				plotHueHistogram();
+			}
+		}
+		else
+		{
+			IJ.error("No track could be completed");
+		}
+		outputTracksInResultTable();
+		impStack.setOverlay(trackOverlay);
+		impStack.updateAndRepaintWindow();
+		
+	}
+	
+	/**
+	 * Detects the spots of a single frame. Does not depend on other frames or on the tracks, thus several 
+	 * frames can be detected concurrently.
+	 * @param ip The frame
+	 * @return The spots as blobs
+	 */
+	private ArrayList<Blob> detectBlobs(ImageProcessor ip){
 	    ArrayList<Blob> blobs = new ArrayList<Blob>();
-
-	    
 	    if(getCenterMethodType()==CM_BLOB){
 	    	//Use ijblob to find the blobs.
 	    	blobs = getBlobsOfFrame(ip, hasBlackBackground);
@@ -276,58 +418,98 @@ public class NanoTrackJ_ implements PlugInFilter {
 	    else if (getCenterMethodType() == CM_MAXIMA || getCenterMethodType() == CM_MAXIMA_GAUSS){
 	    	Polygon maximas;
 	    	if(meanFilterSize>0){
-	    		//If a mean filer is applied.
-		    	RankFilters rank = new RankFilters();
-		    	ImageProcessor ipclone = ip.duplicate();
-		    	rank.rank(ipclone, meanFilterSize, RankFilters.MEAN);
-		    	maximas = findMaxima(tolerance,ipclone);
+	    		//If a mean filer is applied. Each detection thread reuses its filter buffers.
+		    	maximas = findMaxima(tolerance,meanFilters.get().filter(ip, meanFilterSize));
 	    	}else
 	    	{
 	    		maximas = findMaxima(tolerance,ip);
 	    	}
 	    	
-	    	boolean doGaussianFit = (getCenterMethodType() == CM_MAXIMA_GAUSS);
+	    	double[][] fits = null;
+	    	if(getCenterMethodType() == CM_MAXIMA_GAUSS){
+	    		//All spots of the frame are fitted at once
+	    		fits = gaussianFitter.fit(ip, maximas.xpoints, maximas.ypoints, maximas.npoints);
+	    	}
 			for(int i = 0; i < maximas.npoints; ++i){
 				CenterBlob cb = null; // Build artifical blobs, because the TrackSynthesizer only works with blobs from the ijblob library
-				cb = generateCenterBlob(ip, doGaussianFit, maximas.xpoints[i], maximas.ypoints[i]);
+				if(fits != null){
+					cb = generateCenterBlob(ip, fits[i][GaussianFitter.X], fits[i][GaussianFitter.Y]);
+				}else{
+					cb = generateCenterBlob(ip, maximas.xpoints[i], maximas.ypoints[i]);
+				}
 				cb.setIntensity(ip.get(maximas.xpoints[i], maximas.ypoints[i]));
 				blobs.add(cb);
 			}
-			impStack.deleteRoi();
 	    }
+	    return blobs;
+	}
+	
+	/**
+	 * Detects the spots of a slice of the stack.
+	 */
+	private class DetectionTask implements Callable<ArrayList<Blob>> {
+		private int slice;
 		
-	    //Update Tracks
-		trackSyn.updateTracks(blobs, ip.getSliceNumber());
-		if(doDrawtracks){
-			drawTracks(AllTracks.getInstance(),ip.getSliceNumber());
+		DetectionTask(int slice){
+			this.slice = slice;
 		}
 		
-		//If the last frame was analyzed...
-		if(impStack.getStackSize()==ip.getSliceNumber()){
-			trackSyn.archiveOpenTracks(); //Close all open tracks
-			
-			if(validTrackExists(AllTracks.getInstance().getFinishedTracks())){
+		@Override
+		public ArrayList<Blob> call() {
+			return detectBlobs(impStack.getStack().getProcessor(slice));
+		}
+	}
+	
+	/**
+	 * Starts the estimation of the size distribution during the analysis. The finished tracks are passed 
+	 * to a StreamingWalkerEstimator. Only possible if Walker's method with a fixed maximum diameter is used.
+	 */
+	private void startStreamingWalker(){
+		stopStreamingWalker();
+		if(!useWalker || maxWalkerHistogrammDiameter <= 0){
+			return;
+		}
+		streamingWalker = new StreamingWalkerEstimator(temp, visk, framerate, maxWalkerHistogrammDiameter);
+		streamingWalkerListener = new IFinishedTrackListener() {
 			
-				if(useWalker==false){
-					plotDiffCoeffDistribution(AllTracks.getInstance().getFinishedTracks());
-				}
-				plotSizeDistribution(AllTracks.getInstance().getFinishedTracks());
-				if(impStack.getType()==ImagePlus.COLOR_RGB){
-					plotHueHistogram();
+			@Override
+			public void trackFinished(Track track) {
+				if(isValidTrack(track)){
+					double d = track.getDiffusionCoefficient(doCorrectDrift,useKalman);
+					double msd = d*4.0/framerate; //Diffusionkoeffizient zurückrechnen
+					streamingWalker.addTrack(msd, track.size());
 				}
 			}
-			else
-			{
-				IJ.error("No track could be completed");
-			}
-			outputTracksInResultTable();
-			impStack.setOverlay(trackOverlay);
-			impStack.updateAndRepaintWindow();
-			
-			
-			
+		};
+		AllTracks.getInstance().addFinishedTrackListener(streamingWalkerListener);
+	}
+	
+	/**
+	 * Updates the size distribution of the tracks finished so far and reports it in the log window.
+	 * @param slice Current slice
+	 */
+	private void updateStreamingWalker(int slice){
+		if(streamingWalker.getNumberOfTracks()==0){
+			return;
 		}
-		
+		streamingWalker.update();
+		IJ.log("Walker's method (frame " + slice + "): " + streamingWalker.getNumberOfTracks() + " tracks, mode: " 
+				+ IJ.d2s(streamingWalker.getModeDiameter(),0) + " nm, change: " + IJ.d2s(streamingWalker.getChange()*100,2) + " %");
+	}
+	
+	private void stopStreamingWalker(){
+		if(streamingWalkerListener != null){
+			AllTracks.getInstance().removeFinishedTrackListener(streamingWalkerListener);
+		}
+		streamingWalkerListener = null;
+		streamingWalker = null;
+	}
+	
+	/**
+	 * @return The streaming size distribution estimator of the current analysis or null if not available
+	 */
+	public StreamingWalkerEstimator getStreamingWalker(){
+		return streamingWalker;
 	}
 	
 	public ImagePlus getImageStack(){
@@ -341,7 +523,7 @@ public class NanoTrackJ_ implements PlugInFilter {
 		ArrayList<Double> hueAL = new ArrayList<Double>();
 		ArrayList<Double> trackLenghAL = new ArrayList<Double>();
 		for (Track t : AllTracks.getInstance().getFinishedTracks()) { 
-			double hue = (double)t.getMedianHUE();
+			double hue = (double)getSummary(t).getMedianHue();
 			if(t.size()>minTrackLength && hue < 270){
 				hueAL.add(hue);
 				trackLenghAL.add((double)t.size());
@@ -389,22 +571,13 @@ public class NanoTrackJ_ implements PlugInFilter {
 	/**
 	 * Generates a object of the class CenterBlob 
 	 * @param ip	The image which contains the blob
-	 * @param doGaussianFit	If true, a 2D gaussian will fitted to intensity profile of the blob. 
-	 * The center of the gaussian will used as center of the CenterBlob.
 	 * @param xc x coordinate of the center
 	 * @param yc y coordinate of the center
 	 */
-	private CenterBlob generateCenterBlob(ImageProcessor ip, boolean doGaussianFit, double xc, double yc){
+	private CenterBlob generateCenterBlob(ImageProcessor ip, double xc, double yc){
 		CenterBlob cb = null;
 		float blobXc = (float)xc;
 		float blobYc = (float)yc;
-		if(doGaussianFit){ // Maxima & Gaussian Fit
-			//Do Gaussian Fit
-			float[] coords = NanoTrackUtil.getFittedParameter(ip, xc, yc);
-			blobXc = coords[0];
-			blobYc = coords[1];
-			
-		}
 		if(impStack.getType()==ImagePlus.COLOR_RGB){
 			ColorProcessor cip = (ColorProcessor)ip;
 			float hue = NanoTrackUtil.meanHUE(cip, (int)blobXc, (int)blobYc);
@@ -428,15 +601,13 @@ public class NanoTrackJ_ implements PlugInFilter {
 		gd.addSlider("Preview-Slice", 1, impStack.getStackSize(), impStack.getSlice());
 		gd.addSlider("Mean filter", 0, 12, meanFilterSize);
 		gd.addSlider("Tolerance", 1, 200, tolerance);
+		gd.addCheckbox("Fast maxima detection", useFastMaxima);
 		
 		
 		DialogListener dl = new DialogListener() {
 			
 			@Override
 			public boolean dialogItemChanged(GenericDialog gd, AWTEvent e) {
-				//if(e != null){
-					IJ.run("Undo");
-				//}
 				impStack.setSlice((int)gd.getNextNumber());
 				int slice = impStack.getSlice();
 				impStack.deleteRoi();
@@ -444,11 +615,15 @@ public class NanoTrackJ_ implements PlugInFilter {
 			
 				int meanSize= (int)gd.getNextNumber();
 				
+				//The maxima are searched in the same way as in the analysis, the image itself is not filtered
+				ImageProcessor proc = impStack.getStack().getProcessor(slice);
 				if(meanSize>0){
-					IJ.run("Mean...", "radius="+meanSize+" slice");
+					proc = meanFilters.get().filter(proc, meanSize);
 				}
 				
-				Polygon pol = findMaxima(gd.getNextNumber(),impStack.getStack().getProcessor(slice));//nsStack.getProcessor(slice)
+				double tol = gd.getNextNumber();
+				useFastMaxima = gd.getNextBoolean();
+				Polygon pol = findMaxima(tol,proc);
 				Roi points = new PointRoi(pol.xpoints, pol.ypoints, pol.npoints);
 				((PointRoi)points).setHideLabels(true);
 				impStack.setRoi(points);
@@ -463,12 +638,10 @@ public class NanoTrackJ_ implements PlugInFilter {
 		 gd.getNextNumber();
 		meanFilterSize =  (int)gd.getNextNumber();
 		tolerance =  (int)gd.getNextNumber();
+		useFastMaxima = gd.getNextBoolean();
 		if (gd.wasCanceled()) {
 			return true;
 		}
-		if(meanFilterSize>0){
-			IJ.run("Undo");
-		}
 		return false;
 	}
 	/**
@@ -477,8 +650,11 @@ public class NanoTrackJ_ implements PlugInFilter {
 	 * @return Polygon of all maximas.
 	 */
 	private Polygon findMaxima(double tolerance, ImageProcessor proc){
-		MaximumFinder mf = new MaximumFinder();
 		boolean excludeOnEdges = true;
+		if(useFastMaxima){
+			return maximaDetectors.get().getMaxima(proc, tolerance, excludeOnEdges);
+		}
+		MaximumFinder mf = new MaximumFinder();
 		return mf.getMaxima(proc, tolerance, excludeOnEdges);
 	}
 	
@@ -499,17 +675,15 @@ public class NanoTrackJ_ implements PlugInFilter {
 		double[] drift = AllTracks.getInstance().getDrift();
 		for(int i = 0; i < tracks.size(); i++){
 			
-			Track track = tracks.get(i);
-
-	
-			double D = track.getDiffusionCoefficient(doCorrectDrift,useKalman);
+			TrackSummary summary = getSummary(tracks.get(i));
+			double D = summary.getDiffusionCoefficient();
 		
-			if(isValidTrack(track)){
+			if(summary.isValid()){
 				rt.incrementCounter();
-				rt.addValue("TID", track.getTrackID());
-				rt.addValue("#Steps", track.size());
-				rt.addValue("Start Frame", track.getStartFrameIndex());
-				rt.addValue("End Frame", track.getEndFrameIndex());
+				rt.addValue("TID", summary.getTrackID());
+				rt.addValue("#Steps", summary.getLength());
+				rt.addValue("Start Frame", summary.getStartFrameIndex());
+				rt.addValue("End Frame", summary.getEndFrameIndex());
 				rt.addValue("D [10^(-10) cm^2 / s]", D);
 				double size = diffCoeffToDiameter(D);
 				rt.addValue("Size [nm]", size);
@@ -572,7 +746,7 @@ public class NanoTrackJ_ implements PlugInFilter {
 					d = 0;
 				}
 				TextRoi.setFont(Font.MONOSPACED, 10, Font.PLAIN);
-				TextRoi troi = new TextRoi((int)currentTrack.getLastBlob().getCenterOfGravity().getX(), (int)currentTrack.getLastBlob().getCenterOfGravity().getY(), 
+				TextRoi troi = new TextRoi((int)currentTrack.getLastX(), (int)currentTrack.getLastY(), 
 						""+d +" T:"+currentTrack.getTrackID());
 				troi.setPosition(currentslice);
 				troi.setStrokeColor(Color.magenta);
@@ -590,7 +764,7 @@ public class NanoTrackJ_ implements PlugInFilter {
 	public ArrayList<Track> getHueFilteredTracks(double lowerhue,double upperhue){
 		ArrayList<Track> hueFilteredTracks = new ArrayList<Track>();
 		for (Track track : AllTracks.getInstance().getFinishedTracks()) {
-			double hue = track.getMedianHUE();
+			double hue = getSummary(track).getMedianHue();
 			if(hue > lowerhue && hue < upperhue){
 				hueFilteredTracks.add(track);
 			}
@@ -637,16 +811,17 @@ public class NanoTrackJ_ implements PlugInFilter {
 		{
 			for(int i = 0; i < tracks.size(); i++){
 				IJ.showProgress(i, tracks.size());
-				if(isValidTrack(tracks.get(i))){
-					double d = tracks.get(i).getDiffusionCoefficient(doCorrectDrift,useKalman);
+				TrackSummary summary = getSummary(tracks.get(i));
+				if(summary.isValid()){
+					double d = summary.getDiffusionCoefficient();
 					numberOfParticels++;
 					if(size){
 						d= diffCoeffToDiameter(d);
 					}
-					meanTrackLength += tracks.get(i).size();
-					normfactor += tracks.get(i).size();
+					meanTrackLength += summary.getLength();
+					normfactor += summary.getLength();
 					data.add(d);
-					data.add((double)tracks.get(i).size());	
+					data.add((double)summary.getLength());	
 				}
 			}
 			double[][] dataarray = new double[data.size()/2][2];
@@ -674,13 +849,14 @@ public class NanoTrackJ_ implements PlugInFilter {
 		{
 			for(int i = 0; i < tracks.size(); i++){
 				IJ.showProgress(i, tracks.size());
-				if(isValidTrack(tracks.get(i))){
-					double d = tracks.get(i).getDiffusionCoefficient(doCorrectDrift,useKalman);
+				TrackSummary summary = getSummary(tracks.get(i));
+				if(summary.isValid()){
+					double d = summary.getDiffusionCoefficient();
 					numberOfParticels++;
-					meanTrackLength += tracks.get(i).size();
+					meanTrackLength += summary.getLength();
 					double msd = d*4.0/framerate; //Diffusionkoeffizient zurückrechnen
 					data.add(msd);
-					data.add((double)tracks.get(i).size());
+					data.add((double)summary.getLength());
 				}	
 			}
 			double[][] dataarray = new double[data.size()/2][2];
@@ -692,11 +868,18 @@ public class NanoTrackJ_ implements PlugInFilter {
 			}
 			if(numberOfParticels>0){
 				WalkerMethodEstimator walker = new WalkerMethodEstimator(dataarray, temp, visk, framerate,maxWalkerHistogrammDiameter);
+				walker.setAcceleration(useWalkerAcceleration);
+				walker.setMultiResolution(useWalkerMultiResolution);
 				meanTrackLength = meanTrackLength/numberOfParticels;
 				BarplotDataset dataset = new BarplotDataset();
-				double[][] dens = walker.estimate();
+				double[][] dens;
+				if(walkerBootstrapReplicates > 0){
+					dens = walker.estimateWithBootstrap(walkerBootstrapReplicates, 0.95);
+				}else{
+					dens = walker.estimate();
+				}
 				histogram = new HistogramPlotter(plotTitle,"Diameter [nm]", dens,numberOfParticels,meanTrackLength,dataset);
-				NanoTrackUtil.outputHistogramData(dens, "Walker Density","Bin [nm]","Probablity"); //outputWalkerHistogramData(dens);
+				NanoTrackUtil.outputHistogramData(dens, "Walker Density",new String[]{"Bin [nm]","Probablity","Lower 95%","Upper 95%"}); //outputWalkerHistogramData(dens);
 			}else{
 				IJ.error("No track could be completed");
 			}
@@ -717,13 +900,50 @@ public class NanoTrackJ_ implements PlugInFilter {
 		return false;
 	}
 	
+	/**
+	 * @return True if the track is valid. Reads the summary of the track if it is already summarized.
+	 */
 	public boolean isValidTrack(Track t){
+		if(t.getSummary() != null){
+			return t.getSummary().isValid();
+		}
 		return hasMinTrackLength(t)
 				&& (t.getDiffusionCoefficient(doCorrectDrift,useKalman)>0)
-				&& isMoving(t,5);
+				&& isMoving(t,TrackSummary.MIN_DISTANCE_FROM_START);
 				//&& (t.getSumOfAbsoluteDisplacements()>t.size()*2);
 	}
 	
+	/**
+	 * @return The summary of the track. If the track is not summarized yet, it is summarized with the current settings.
+	 */
+	private TrackSummary getSummary(Track t){
+		TrackSummary summary = t.getSummary();
+		if(summary == null){
+			summary = t.summarize(doCorrectDrift, useKalman, minTrackLength);
+		}
+		return summary;
+	}
+	
+	/**
+	 * @return All valid finished tracks
+	 */
+	public ArrayList<Track> getValidTracks(){
+		ArrayList<Track> validTracks = new ArrayList<Track>();
+		for (Track track : AllTracks.getInstance().getFinishedTracks()) {
+			if(getSummary(track).isValid()){
+				validTracks.add(track);
+			}
+		}
+		return validTracks;
+	}
+	
+	/**
+	 * @return The hydrodynamic diameter of the track in [nm]
+	 */
+	public double getDiameter(Track t){
+		return diffCoeffToDiameter(getSummary(t).getDiffusionCoefficient());
+	}
+	
 	private boolean isMoving(Track t, int minDistance){
 		
 		return (t.getMaxDistanceFromStart() > minDistance);
@@ -788,6 +1008,31 @@ public class NanoTrackJ_ implements PlugInFilter {
 	public String getDCEstimatorChoice() {
 		return dcEstimator;
 	}
+	
+	/**
+	 * @return TrackSynthesizer.LINKER_UNAMBIGUOUS or TrackSynthesizer.LINKER_LAP
+	 */
+	public int getLinkerType() {
+		if(linkerChoice.equals(linkerMethods[1])){
+			return TrackSynthesizer.LINKER_LAP;
+		}
+		return TrackSynthesizer.LINKER_UNAMBIGUOUS;
+	}
+	
+	public String getLinkerChoice() {
+		return linkerChoice;
+	}
+	
+	public int getMaxGap() {
+		return maxGap;
+	}
+	
+	/**
+	 * @return Half width of the window of the time-resolved drift [frames], 0 = global linear drift
+	 */
+	public int getDriftWindow() {
+		return driftWindow;
+	}
 
 
 
@@ -815,6 +1060,18 @@ public class NanoTrackJ_ implements PlugInFilter {
 		return maxWalkerHistogrammDiameter;
 	}
 	
+	public int getWalkerBootstrapReplicates(){
+		return walkerBootstrapReplicates;
+	}
+	
+	public boolean doUseWalkerAcceleration(){
+		return useWalkerAcceleration;
+	}
+	
+	public boolean doUseWalkerMultiResolution(){
+		return useWalkerMultiResolution;
+	}
+	
 	public int getMaximumDialogMeanFilterSize(){
 		return meanFilterSize;
 	}
@@ -822,6 +1079,10 @@ public class NanoTrackJ_ implements PlugInFilter {
 	public int getMaximumDialogTolerance(){
 		return tolerance;
 	}
+	
+	public boolean doUseFastMaxima(){
+		return useFastMaxima;
+	}
 
 	public int getCenterMethodType() {
 		int type = 0;
@@ -24,10 +24,6 @@
 
 package de.biomedical_imaging.ij.nanotrackj;
 
-import java.awt.Rectangle;
-
-import ij.ImagePlus;
-import ij.gui.EllipseRoi;
 import ij.measure.ResultsTable;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
@@ -89,82 +85,34 @@ public class NanoTrackUtil {
 	}
 	
 	/**
-	 * Checks if a sign of a value is unchanged.
-	 * @param ldx Last value
-	 * @param dx Current value
-	 * @return True if the sign has not changed.
+	 * Shows a histogram with additional columns (e.g. confidence bands) in a results table.
+	 * @param data [i][j] = Value of column j in bin i
+	 * @param title Title of the results table
+	 * @param columnTitles Titles of the columns. Only the columns which are present in data are shown.
 	 */
-	private static boolean signUnChanged(int ldx, int dx){
-		if(ldx==Integer.MIN_VALUE){
-			return true;
-		}
-		if(ldx*dx < 0){
-			return false;
-		}
-		return true;
+	public static void outputHistogramData(double[][] data, String title, String[] columnTitles){
+		 ResultsTable rt = new ResultsTable();
+		 
+		 for(int i = 0; i < data.length; i++){
+			rt.incrementCounter();
+			for(int j = 0; j < Math.min(data[i].length, columnTitles.length); j++){
+				rt.addValue(columnTitles[j], data[i][j]);
+			}
+		 }
+		 rt.show(title);
 	}
 	
 	/**
-	 * Estimates the width of the central maximum of the diffraction pattern by searching the first maxima of the second drivative in x direction
+	 * Estimates the Parameter of a Gaussian for the central maximum of a diffraction pattern, see CentroidRefiner
 	 * @param ip The image which contains the diffraction pattern
-	 * @param xc Estimated x-coordinate of the center of gravity of the central maximum
-	 * @param yc Estimated y-coordinate of the center of gravity of the central maximum
-	 * @param direction direction > 0 -> Right, Direction < 0 -> Left
-	 * @return Radius of central maximum
-	 */
-	private static int findRadius(ImageProcessor ip, double xc, double yc, int direction){
-		int x = (int)xc;
-		int y = (int)yc;
-		int c = 0;
-		int ldx = Integer.MIN_VALUE;
-		int dx = Integer.MIN_VALUE;
-		if(Math.abs(direction)!=1){
-			direction = (int)Math.signum(direction);
-		}
-		do{
-			ldx = dx;
-			dx = 2*ip.get(x + (direction*c), y)-ip.get(x + (direction*c) -1, y)-ip.get(x + (direction*c) +1, y);
-			c++;
-		}while(c<=30 && signUnChanged(ldx,dx) );
-		return c;
-	}
-	/**
-	 * Estimates the Parameter of a Gaussian for the central maximum of a diffraction pattern
-	 * @param ip The image which contains the diffraction pattern
-	 * @param xc Estimated x-coordinate of the center of gravity of the central maximum
-	 * @param yc Estimated y-coordinate of the center of gravity of the central maximum
+	 * @param xc x-coordinate of the maximum (pixel)
+	 * @param yc y-coordinate of the maximum (pixel)
 	 * @return Return the parameters of Gaussian Distribution as float array p:
 	 * p[0] x-coordinate of the center of gravity, p[1] y-coordinate of the center of gravity
 	 */
 	public static float[] getFittedParameter(ImageProcessor ip, double xc, double yc){
-		int radius1 = findRadius(ip, xc, yc,1);
-		int radius2 = findRadius(ip, xc, yc,-1);
-		int radius = Math.max(radius1, radius2);
-
-		EllipseRoi circleRoi = new EllipseRoi(xc-radius, yc-radius, xc+radius, yc+radius, 1);
-		ImagePlus imp = new ImagePlus("", ip);
-		circleRoi.setImage(imp);
-		
-		ImageProcessor mask = circleRoi.getMask();
-		Rectangle r = circleRoi.getBounds();
-		double sumx = 0;
-		double sumy = 0;
-		double sumWeight = 0;
-
-		for (int y=0; y<r.height; y++) {
-			for (int x=0; x<r.width; x++) {
-				if (mask==null||mask.getPixel(x,y)!=0) {
-					float weight = (int)ip.getPixelValue(x+r.x, y+r.y);					
-					sumWeight += weight;
-					sumx += (x+r.x)*weight;
-					sumy += (y+r.y)*weight;
-				}
-			}
-		}
-
 		float[] para = new float[2];
-		para[0] = (float)(sumx/sumWeight);
-		para[1] = (float)(sumy/sumWeight);
+		CentroidRefiner.refine(ip, (int)xc, (int)yc, para);
 		return para;
 	}
 	
@@ -45,9 +45,10 @@ public class RegressionEstimator extends IDiffusionCoefficientEstimator {
 			reg.addData(0, 0);
 		}
 		
+		MSDCurve curve = track.getMSDCurve(driftx, drifty, maxTimeLag);
 		for(int i = 0; i < tau.length; i++){
 			
-			msdhelp = track.getMeanSquareDisplacement(driftx,drifty,tau[i]); 
+			msdhelp = curve.getMSD(tau[i]); 
 			reg.addData(tau[i]*(1.0/getFramesPerSecond()), msdhelp);
 		}
 
@@ -62,8 +63,17 @@ public class RegressionEstimator extends IDiffusionCoefficientEstimator {
 		gd.addNumericField("Min. Time Lag", 1, 0);
 		gd.addNumericField("Max. Time Lag", 2, 0);
 		gd.showDialog();
-		minTimeLag = (int)gd.getNextNumber();
-		maxTimeLag = (int)gd.getNextNumber();
+		setTimeLags((int)gd.getNextNumber(), (int)gd.getNextNumber());
+	}
+	
+	/**
+	 * Sets the range of timelags which are used for the regression without showing the setup dialog.
+	 * @param minTimeLag Min. timelag
+	 * @param maxTimeLag Max. timelag
+	 */
+	public void setTimeLags(int minTimeLag, int maxTimeLag){
+		this.minTimeLag = minTimeLag;
+		this.maxTimeLag = maxTimeLag;
 		tau = new int[maxTimeLag];
 		for(int i = 0 ; i < maxTimeLag-minTimeLag+1; i++){
 			tau[i] = minTimeLag + i;
@@ -0,0 +1,205 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+import java.util.ArrayList;
+
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Streaming variant of Walker's method (see WalkerMethodEstimator). Tracks are added one by one 
+ * while the video is analyzed. The kernel row of each track is computed once when the track is added 
+ * and each update continues the EM iterations from the previous density. Therefore a size distribution 
+ * is available during the analysis at low marginal cost.
+ * @author Thorsten Wagner
+ */
+public class StreamingWalkerEstimator {
+	
+	private double kB = 1.3806488* Math.pow(10, -19); 			// [kg cm^2 s^-2 K^-1]
+	private int binSizeInnm = 2; 								// [nm]
+	private double deltaR = binSizeInnm*Math.pow(10, -7); 		// [cm]
+	private int binNumber;
+	private double[] logTheta;									// [m] = log(theta) for radius (m+1)*deltaR
+	private double[] invTheta;									// [m] = 1/theta for radius (m+1)*deltaR
+	private ArrayList<double[]> kernel;							// [k][m] = Probability density of the MSD of track k for radius (m+1)*deltaR
+	private double[] dens;
+	private double[] lastDens;
+	private int maxIterations = 50;								// Maximum number of EM steps per update
+	private double tolerance = 0.00001;							// Relative change of the log-likelihood to stop an update
+	private static final double UNIFORM_FLOOR = 0.01;			// Share of the uniform density which is mixed into the warm start
+	
+	/**
+	 * @param temp Temperature of the suspension in kelvin
+	 * @param visk Viscosity of the suspension [kg cm^-1 s^-1]
+	 * @param framerate [1/s]
+	 * @param maxdiameter The maximum diameter for the estimation [nm], at least one bin (4 nm)
+	 */
+	public StreamingWalkerEstimator(double temp, double visk, double framerate, int maxdiameter) {
+		double thetaFactor = (2*kB*temp*(1.0/framerate))/(3*Math.PI*visk);
+		binNumber = (int)(maxdiameter/2.0/binSizeInnm);
+		if(binNumber < 1){
+			throw new IllegalArgumentException("The maximum diameter has to be at least " + 2*binSizeInnm + " nm");
+		}
+		logTheta = new double[binNumber];
+		invTheta = new double[binNumber];
+		for(int m = 0; m < binNumber; m++){
+			double r = (m+1)*deltaR;
+			logTheta[m] = Math.log(thetaFactor/r);
+			invTheta[m] = r/thetaFactor;
+		}
+		kernel = new ArrayList<double[]>();
+		dens = new double[binNumber];
+		java.util.Arrays.fill(dens, 1.0/binNumber);
+	}
+	
+	/**
+	 * Adds a track. The density is not updated until update() is called.
+	 * @param msd Mean squared displacement of the track [10^-10 cm^2]
+	 * @param tracklength Number of steps of the track
+	 */
+	public void addTrack(double msd, int tracklength){
+		double k = tracklength;
+		double[] row = new double[binNumber];
+		WalkerMethodEstimator.fillKernelRow(msd*Math.pow(10, -10), k, Math.log(k), Gamma.logGamma(k), logTheta, invTheta, row);
+		kernel.add(row);
+	}
+	
+	/**
+	 * Continues the EM iterations from the last density until the relative change of the 
+	 * log-likelihood is below the tolerance. The last density is mixed with a small uniform density 
+	 * before, because the multiplicative EM steps can not revive a bin with zero probability. Otherwise 
+	 * sizes which only appear in later tracks could be excluded by the early tracks.
+	 */
+	public void update(){
+		if(kernel.size()==0){
+			return;
+		}
+		lastDens = dens.clone();
+		double sumdens = 0;
+		for(int m = 0; m < binNumber; m++){
+			sumdens += dens[m];
+		}
+		for(int m = 0; m < binNumber; m++){
+			dens[m] = (1-UNIFORM_FLOOR)*dens[m]/sumdens + UNIFORM_FLOOR/binNumber;
+		}
+		double lastLogLik = Double.NaN;
+		for(int i = 0; i < maxIterations; i++){
+			double logLik = updateDensity();
+			if(Math.abs(logLik-lastLogLik) < tolerance*Math.abs(logLik)){
+				break;
+			}
+			lastLogLik = logLik;
+		}
+	}
+	
+	/**
+	 * One EM step as described by Walker (2012).
+	 * @return Log-likelihood (per track) of the density before the update
+	 */
+	private double updateDensity(){
+		double sumpm = 0;
+		for(int m = 0; m < binNumber; m++){
+			sumpm += dens[m];
+		}
+		double[] help2 = new double[binNumber];
+		double logLik = 0;
+		for(int k = 0; k < kernel.size(); k++){
+			double[] prob = kernel.get(k);
+			double help1 = 0;
+			for(int l = 0; l < binNumber; l++){
+				help1 += prob[l]*dens[l];
+			}
+			help1 = help1/sumpm;
+			if(help1 == 0){
+				continue; //Track is not explained by any radius of the grid
+			}
+			for(int m = 0; m < binNumber; m++){
+				help2[m] += prob[m]/help1;
+			}
+			logLik += Math.log(help1);
+		}
+		for(int m = 0; m < binNumber; m++){
+			dens[m] = dens[m] * 1.0/kernel.size() * help2[m];
+		}
+		return logLik/kernel.size();
+	}
+	
+	/**
+	 * @return Histogram [i][j]: i = bin, j = density (normalized)
+	 */
+	public double[][] getDensity(){
+		double sumdens = 0;
+		for(int m = 0; m < binNumber; m++){
+			sumdens += dens[m];
+		}
+		double[][] densxy = new double[binNumber][2];
+		for(int i = 0; i < binNumber; i++){
+			densxy[i][0] = binSizeInnm*(i+1)*2.0; //To Diamter in [nm]
+			densxy[i][1] = dens[i]/sumdens;
+		}
+		return densxy;
+	}
+	
+	/**
+	 * @return The L1 distance between the normalized densities before and after the last update. 
+	 * Small values indicate that the distribution has stabilized.
+	 */
+	public double getChange(){
+		if(lastDens == null){
+			return Double.NaN;
+		}
+		double sumLast = 0;
+		double sum = 0;
+		for(int m = 0; m < binNumber; m++){
+			sumLast += lastDens[m];
+			sum += dens[m];
+		}
+		double change = 0;
+		for(int m = 0; m < binNumber; m++){
+			change += Math.abs(dens[m]/sum - lastDens[m]/sumLast);
+		}
+		return change;
+	}
+	
+	/**
+	 * @return The diameter [nm] with the highest density
+	 */
+	public double getModeDiameter(){
+		int maxIndex = 0;
+		for(int m = 1; m < binNumber; m++){
+			if(dens[m] > dens[maxIndex]){
+				maxIndex = m;
+			}
+		}
+		return binSizeInnm*(maxIndex+1)*2.0;
+	}
+	
+	/**
+	 * @return Number of added tracks
+	 */
+	public int getNumberOfTracks(){
+		return kernel.size();
+	}
+
+}
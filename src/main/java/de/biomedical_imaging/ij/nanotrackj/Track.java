@@ -27,34 +27,73 @@ import ij.IJ;
 import ij.blob.Blob;
 
 import java.awt.Polygon;
-import java.util.ArrayList;
+import java.awt.geom.Point2D;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
 import org.apache.commons.math3.stat.descriptive.rank.Median;
 
-public class Track extends ArrayList<Step> implements Comparable<Track>{
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 1L;
+/**
+ * A particle trajectory. The detections are stored in primitive arrays (struct of arrays). 
+ * The primitive accessors (getX(i), getY(i), getFrameIndex(i), ...) do not allocate. The list view 
+ * (get(i)) creates a Step with a CenterBlob for each call and is only kept for compatibility.
+ */
+public class Track extends AbstractList<Step> implements Comparable<Track>, RandomAccess{
+	private float[] x = new float[8];
+	private float[] y = new float[8];
+	private float[] intensity = new float[8];
+	private float[] hue = new float[8];
+	private int[] frame = new int[8];
+	private int size = 0;
 	private int startFrame;
 	private int endFrame;
 	public static double  nmPerPixel = 166; //166nm=Typical Pixelsize in Nanosight Devices
 	public static double  framerate = 1.0/30;
-	private double msd = -1; //Mean Square Displacement
 	private double dc = -1; //Diffusion Coefficient
 	private double lastDCUpdate = -1;
+	private int lastDCFlags = -1; //Flags (drift correction, Kalman) of the cached diffusion coefficient
 	private Polygon trackAsPolygon = null;
 	private int trackID=0;
-	private static int trackCounter=1;
+	private static AtomicInteger trackCounter = new AtomicInteger(1);
+	private AllTracks driftSums = null; //Collection whose running drift sums contain this track
+	private int openIndex = -1; //Index in the open tracks of AllTracks, -1 if the track is not open
+	private TrackSummary summary = null;
 
 	public static IDiffusionCoefficientEstimator diffCoeffEst;
 	
 	public Track(int frameIndex){
 			startFrame = frameIndex;
-			trackID=trackCounter;
-			trackCounter++;
+			trackID=trackCounter.getAndIncrement();
+	}
+	/**
+	 * Creates an empty track with the start frame and the id of t. Used for derived tracks (drift corrected, 
+	 * Kalman filtered), which must not take a new track id.
+	 */
+	Track(Track t){
+		startFrame = t.startFrame;
+		trackID = t.trackID;
+	}
+	
+	/**
+	 * @return A copy of this track where the time-resolved drift (see AllTracks.getDriftField()) is subtracted 
+	 * from each position. The copy has the same track id.
+	 */
+	public Track getDriftCorrectedTrack(){
+		DriftField field = AllTracks.getInstance().getDriftField();
+		Track corrected = new Track(this);
+		for(int i = 0; i < size; i++){
+			corrected.add((float)(x[i] + field.getCumulativeDriftX(frame[i])), (float)(y[i] + field.getCumulativeDriftY(frame[i])), 
+					intensity[i], hue[i], frame[i]);
+		}
+		return corrected;
 	}
+	
 	/**
 	 * @param est The diffusion coefficient estimator.
 	 */
@@ -85,41 +124,40 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 		
 		double[] locnoise = koest.getLocalizationNoise(this, R, drift[0], drift[1]); 
 		
-		Track filteredTrack = new Track(this.getStartFrameIndex());
+		Track filteredTrack = new Track(this);
 		
-		double postX = this.get(0).getX();
-		double postY = this.get(0).getY();
+		double postX = this.getX(0);
+		double postY = this.getY(0);
 		double postMMSEX=locnoise[0];
 		double postMMSEY=locnoise[1];
 		double varDF = koest.getDiffusionCoefficient(this, drift[0], drift[1])*2*framerate;
 		double varNoiseX = locnoise[0];
 		double varNoiseY = locnoise[1];
 		
-		CenterBlob cb = new CenterBlob((float)postX,(float)postY,((CenterBlob)this.get(0).getBlob()).getHUE());
-		Step s = new Step(cb, this.get(0).getFrameIndex());
-		filteredTrack.add(s);
+		filteredTrack.add((float)postX, (float)postY, getIntensity(0), getHue(0), getFrameIndex(0));
 		
 		//Get drift corrected track
 		for (int i = 1; i < this.size(); i++) {
-			//Prediction
-			double priorX = postX + i*drift[0];
-			double priorY = postY + i*drift[1];
+			int lag = this.getFrameIndex(i) - this.getFrameIndex(0); //Frames since the start of the track, including gaps
+			int steps = this.getFrameIndex(i) - this.getFrameIndex(i-1);
+			
+			//Prediction: The drift corrected position is a random walk
+			double priorX = postX;
+			double priorY = postY;
 			
-			//Minimum Predction MSE
-			double priorMMSEX = postMMSEX + varDF;
-			double priorMMSEY = postMMSEY + varDF;
+			//Minimum Predction MSE, the variance grows with each frame since the last detection
+			double priorMMSEX = postMMSEX + steps*varDF;
+			double priorMMSEY = postMMSEY + steps*varDF;
 			
 			//Kalman Gain
 			double Kx = priorMMSEX * 1/(varNoiseX+priorMMSEX);
 			double Ky = priorMMSEY * 1/(varNoiseY+priorMMSEY);
 			
 			//Correction
-			postX = priorX + Kx * (this.get(i).getX()+i*drift[0] - priorX); // 
-			postY = priorY + Ky * (this.get(i).getY()+i*drift[1] - priorY); //
+			postX = priorX + Kx * (this.getX(i)+lag*drift[0] - priorX); // 
+			postY = priorY + Ky * (this.getY(i)+lag*drift[1] - priorY); //
 			
-			cb = new CenterBlob((float)postX,(float)postY,((CenterBlob)this.get(i).getBlob()).getHUE());
-			s = new Step(cb, this.get(i).getFrameIndex());
-			filteredTrack.add(s);
+			filteredTrack.add((float)postX, (float)postY, getIntensity(i), getHue(i), getFrameIndex(i));
 			
 			//Minimum MSE
 			postMMSEX = (1-Kx)*priorMMSEX;
@@ -136,8 +174,8 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	 */
 	public Polygon getTrackAsPolygon(){
 		trackAsPolygon = new Polygon();
-		for(int i = 0; i < this.size(); i++){
-			trackAsPolygon.addPoint((int)this.get(i).getX(), (int)this.get(i).getY());
+		for(int i = 0; i < size; i++){
+			trackAsPolygon.addPoint((int)x[i], (int)y[i]);
 		}
 		return trackAsPolygon;
 	}
@@ -148,8 +186,8 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	public Polygon getTrackAsPolygon(int slicenumber){
 		trackAsPolygon = new Polygon();
 		int i = 0;
-		while(this.get(i).getFrameIndex() < slicenumber){
-			trackAsPolygon.addPoint((int)this.get(i).getX(), (int)this.get(i).getY());
+		while(i < size && frame[i] < slicenumber){
+			trackAsPolygon.addPoint((int)x[i], (int)y[i]);
 			i++;
 		}
 		return trackAsPolygon;
@@ -157,8 +195,165 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	
 	@Override
 	public boolean add(Step e) {
-		endFrame = e.getFrameIndex();
-		return super.add(e);
+		add(e.getBlob(), e.getFrameIndex());
+		return true;
+	}
+	
+	/**
+	 * Appends a detection. Only the center of gravity and, for a CenterBlob, its intensity and hue are stored.
+	 * @param blob Detected blob
+	 * @param frameIndex Frame of the detection
+	 */
+	public void add(Blob blob, int frameIndex){
+		Point2D center = blob.getCenterOfGravity();
+		float i0 = 0;
+		float h = Float.NaN;
+		if(blob instanceof CenterBlob){
+			i0 = ((CenterBlob)blob).getIntensity();
+			h = ((CenterBlob)blob).getHUE();
+		}
+		add((float)center.getX(), (float)center.getY(), i0, h, frameIndex);
+	}
+	
+	/**
+	 * Appends a detection without allocating objects (except for growing the arrays).
+	 * @param x x coordinate of the center [pixel]
+	 * @param y y coordinate of the center [pixel]
+	 * @param intensity Intensity of the detection
+	 * @param hue Hue of the detection (NaN for grayscale images)
+	 * @param frameIndex Frame of the detection
+	 */
+	public void add(float x, float y, float intensity, float hue, int frameIndex){
+		if(driftSums != null){
+			driftSums.updateDriftSums(this, -1);
+		}
+		if(size == frame.length){
+			int capacity = 2*size;
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.intensity = Arrays.copyOf(this.intensity, capacity);
+			this.hue = Arrays.copyOf(this.hue, capacity);
+			frame = Arrays.copyOf(frame, capacity);
+		}
+		this.x[size] = x;
+		this.y[size] = y;
+		this.intensity[size] = intensity;
+		this.hue[size] = hue;
+		frame[size] = frameIndex;
+		size++;
+		modCount++;
+		endFrame = frameIndex;
+		if(driftSums != null){
+			driftSums.updateDriftSums(this, 1);
+			driftSums.stepAdded(this);
+		}
+	}
+	
+	/**
+	 * @param openIndex Index of this track in the open tracks of AllTracks, -1 if the track is not open
+	 */
+	void setOpenIndex(int openIndex){
+		this.openIndex = openIndex;
+	}
+	
+	int getOpenIndex(){
+		return openIndex;
+	}
+	
+	/**
+	 * @param driftSums Collection which has to be notified about new detections (null to detach)
+	 */
+	void setDriftSums(AllTracks driftSums){
+		this.driftSums = driftSums;
+	}
+	
+	/**
+	 * Creates a view of the i-th detection. Allocates a Step and a CenterBlob, use the primitive accessors in loops.
+	 */
+	@Override
+	public Step get(int i) {
+		checkIndex(i);
+		CenterBlob cb = new CenterBlob(x[i], y[i], hue[i]);
+		cb.setIntensity(intensity[i]);
+		return new Step(cb, frame[i]);
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	private void checkIndex(int i){
+		if(i < 0 || i >= size){
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+	}
+	
+	/**
+	 * @return x coordinate of the i-th detection [pixel]
+	 */
+	public float getX(int i){
+		checkIndex(i);
+		return x[i];
+	}
+	
+	/**
+	 * @return y coordinate of the i-th detection [pixel]
+	 */
+	public float getY(int i){
+		checkIndex(i);
+		return y[i];
+	}
+	
+	/**
+	 * @return Frame index of the i-th detection
+	 */
+	public int getFrameIndex(int i){
+		checkIndex(i);
+		return frame[i];
+	}
+	
+	/**
+	 * @return Intensity of the i-th detection
+	 */
+	public float getIntensity(int i){
+		checkIndex(i);
+		return intensity[i];
+	}
+	
+	/**
+	 * @return Hue of the i-th detection (NaN if unknown)
+	 */
+	public float getHue(int i){
+		checkIndex(i);
+		return hue[i];
+	}
+	
+	/**
+	 * @return x coordinate of the last detection [pixel]
+	 */
+	public float getLastX(){
+		return getX(size-1);
+	}
+	
+	/**
+	 * @return y coordinate of the last detection [pixel]
+	 */
+	public float getLastY(){
+		return getY(size-1);
+	}
+	
+	/**
+	 * Tracks are entities, two tracks are only equal if they are the same object.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return this == o;
+	}
+	
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this);
 	}
 	
 	/**
@@ -181,8 +376,11 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	 * @return The mean squared displacement for the timelag tau
 	 */
 	public double getMeanSquareDisplacement(boolean correctDrift, int tau){
-		msd =0;
-		if(correctDrift){
+		double msd = 0;
+		if(correctDrift && AllTracks.getInstance().isTimeResolvedDrift()){
+			msd = getDriftCorrectedTrack().getMeanSquareDisplacement(0, 0, tau);
+		}
+		else if(correctDrift){
 			double[] drift = AllTracks.getInstance().getDrift();
 			msd = getMeanSquareDisplacement(drift[0], drift[1], tau);
 		}
@@ -196,7 +394,10 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	
 	public double[] getMeanSquareDisplacementSD(boolean correctDrift, int tau){
 		double[] sdAndN = new double[2];
-		if(correctDrift){
+		if(correctDrift && AllTracks.getInstance().isTimeResolvedDrift()){
+			sdAndN = getDriftCorrectedTrack().getMeanSquareDisplacementSD(0, 0, tau);
+		}
+		else if(correctDrift){
 			double[] drift = AllTracks.getInstance().getDrift();
 			sdAndN = getMeanSquareDisplacementSD(drift[0], drift[1], tau);
 		}
@@ -206,6 +407,35 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 		}
 		return sdAndN;
 	}
+
+	/**
+	 * @param correctDrift True if the drift has to be corrected.
+	 * @param maxLag Largest timelag in frames
+	 * @return The mean squared displacements for all timelags 0..maxLag
+	 */
+	public MSDCurve getMSDCurve(boolean correctDrift, int maxLag){
+		if(correctDrift && AllTracks.getInstance().isTimeResolvedDrift()){
+			return getDriftCorrectedTrack().getMSDCurve(0, 0, maxLag);
+		}
+		else if(correctDrift){
+			double[] drift = AllTracks.getInstance().getDrift();
+			return getMSDCurve(drift[0], drift[1], maxLag);
+		}
+		return getMSDCurve(0, 0, maxLag);
+	}
+
+	/**
+	 * Computes the mean squared displacements for all timelags at once, which is much faster than
+	 * calling getMeanSquareDisplacement(driftx, drifty, tau) for each timelag of a long track.
+	 * @param driftx Drift in x direction (in pixels)
+	 * @param drifty Drift in y direction (in pixels)
+	 * @param maxLag Largest timelag in frames
+	 * @return The mean squared displacements for all timelags 0..maxLag
+	 */
+	public MSDCurve getMSDCurve(double driftx, double drifty, int maxLag){
+		return MSDCurve.compute(x, y, frame, size, driftx, drifty, maxLag);
+	}
+
 	/**
 	 * @param tau Timelag
 	 * @return Mean Squared Displacement for timelage tau with no drift correction
@@ -223,29 +453,58 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	 * 
 	 * @param driftx Drift in x direction (in pixels)
 	 * @param drifty Drift in y direction (in pixels)
-	 * @param tau Timelag
+	 * @param tau Timelag in frames. Only pairs of steps which are exactly tau frames apart are used, thus gaps are handled correctly.
 	 * @return The mean squared displacement for the timelag tau
 	 */
 	public double getMeanSquareDisplacement(double driftx, double drifty, int tau){
 
-		msd = 0;
+		double msd = 0;
 		if(this.size()==1){
 			return 0;
 		}
 		int N = 0;
-		for(int i = tau; i < this.size(); ++i){
-			msd = msd + Math.pow(this.get(i-tau).getX()-this.get(i).getX() - tau*driftx,2) + Math.pow(this.get(i-tau).getY()-this.get(i).getY()-tau*drifty,2);
+		int j = 0;
+		for(int i = 0; i < size; ++i){
+			j = getIndexOfFrame(frame[i]+tau, j);
+			if(j < 0){
+				break;
+			}
+			if(frame[j] != frame[i]+tau){
+				continue; //No detection tau frames later
+			}
+			msd = msd + Math.pow(x[i]-x[j] - tau*driftx,2) + Math.pow(y[i]-y[j]-tau*drifty,2);
 			++N;
 		}
 		
 		msd = msd/N; //- 1.0/3;
 		return msd;
 	}
+	
+	/**
+	 * @param frame Frame index
+	 * @param from Index of the first step to search
+	 * @return Index of the first step at or after the frame, -1 if there is no such step
+	 */
+	private int getIndexOfFrame(int frame, int from){
+		for(int j = from; j < size; j++){
+			if(this.frame[j] >= frame){
+				return j;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return True if the track has no detection in at least one frame between its start and its end
+	 */
+	public boolean hasGaps(){
+		return getEndFrameIndex()-getStartFrameIndex()+1 != this.size();
+	}
 	/**
 	 * 
 	 * @param driftx Drift in x direction (in pixels)
 	 * @param drifty Drift in y direction (in pixels)
-	 * @param tau Timelag
+	 * @param tau Timelag in frames
 	 * @return [0] = The mean squared displacement, [1] = Number of data points
 	 */
 	public double[] getMeanSquareDisplacementSD(double driftx, double drifty, int tau){
@@ -254,9 +513,16 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 
 		StandardDeviation sd = new StandardDeviation();
 		int N = 0;
-		for(int i = tau; i < this.size(); ++i){
-			
-			msd = Math.pow(this.get(i-tau).getX()-this.get(i).getX() - tau*driftx,2) + Math.pow(this.get(i-tau).getY()-this.get(i).getY()-tau*drifty,2);
+		int j = 0;
+		for(int i = 0; i < size; ++i){
+			j = getIndexOfFrame(frame[i]+tau, j);
+			if(j < 0){
+				break;
+			}
+			if(frame[j] != frame[i]+tau){
+				continue; //No detection tau frames later
+			}
+			msd = Math.pow(x[i]-x[j] - tau*driftx,2) + Math.pow(y[i]-y[j]-tau*drifty,2);
 			sd.increment(msd);
 			
 			++N;
@@ -274,8 +540,8 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 		if(this.size()==1){
 			return 0;
 		}
-		for(int i = 1; i < this.size(); ++i){
-			sum = sum + Math.abs((this.get(i-1).getX())-(this.get(i).getX())) + Math.abs((this.get(i-1).getY())-(this.get(i).getY()));
+		for(int i = 1; i < size; ++i){
+			sum = sum + Math.abs(x[i-1]-x[i]) + Math.abs(y[i-1]-y[i]);
 
 		}
 		return sum;
@@ -284,8 +550,8 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	public double getMaxDistanceFromStart(){
 		double d = 0;
 		double max = Double.MIN_VALUE;
-		for(int i = 1; i < this.size(); ++i){
-			d = Math.abs((this.get(0).getX())-(this.get(i).getX())) + Math.abs((this.get(0).getY())-(this.get(i).getY()));
+		for(int i = 1; i < size; ++i){
+			d = Math.abs(x[0]-x[i]) + Math.abs(y[0]-y[i]);
 			if(d>max){
 				max = d;
 			}
@@ -295,18 +561,23 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	}
 	
 	/**
-	 * 
+	 * The result is cached until a step is added. Different tracks can be estimated concurrently, see 
+	 * summarize(List, ...).
 	 * @param correctDrift True, if the drift has to be corrected.
-	 * @return The diffusion coefficient in pixel^2 / s
+	 * @return The diffusion coefficient in 10^-10 cm^2 / s
 	 */
 	public double getDiffusionCoefficient(boolean correctDrift, boolean useKalman){
-		if(dc > -1 && lastDCUpdate == this.size()){
+		int flags = (correctDrift ? 1 : 0) + (useKalman ? 2 : 0);
+		if(dc > -1 && lastDCUpdate == this.size() && lastDCFlags == flags){
 			return dc;
 		}
 		if(useKalman){
 			double R = (836.0/1500)/6;
 			dc = getKalmanFilteredTrack(R).getDiffusionCoefficient(false, false);
 		}
+		else if(correctDrift && AllTracks.getInstance().isTimeResolvedDrift()){
+			dc = getDriftCorrectedTrack().getDiffusionCoefficient(0, 0);
+		}
 		else if(correctDrift){
 			double[] drift = AllTracks.getInstance().getDrift();
 			dc = getDiffusionCoefficient(drift[0], drift[1]);
@@ -316,10 +587,101 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 			dc = getDiffusionCoefficient(0, 0);
 		}
 		lastDCUpdate=this.size();
+		lastDCFlags = flags;
 		return dc;
 	}
-
 	
+	/**
+	 * Computes the summary of the track (see getSummary()). The diffusion coefficient and the MSD use the 
+	 * current drift estimate, thus it should be called after the last frame is tracked.
+	 * @param correctDrift True, if the drift has to be corrected.
+	 * @param useKalman True, if the track is Kalman filtered before
+	 * @param minTrackLength Min. number of detections of a valid track
+	 * @return The summary
+	 */
+	public TrackSummary summarize(boolean correctDrift, boolean useKalman, int minTrackLength){
+		double[] intensities = new double[size];
+		for(int i = 0; i < size; i++){
+			intensities[i] = intensity[i];
+		}
+		summary = new TrackSummary(this, getDiffusionCoefficient(correctDrift, useKalman), getMeanSquareDisplacement(correctDrift, 1), 
+				getMaxDistanceFromStart(), getMedianHUE(), (float)new Median().evaluate(intensities), minTrackLength);
+		return summary;
+	}
+	
+	/**
+	 * @return The summary computed by the last call of summarize(), null if the track was not summarized
+	 */
+	public TrackSummary getSummary(){
+		return summary;
+	}
+	
+	/**
+	 * Summarizes several tracks in parallel. The estimator (see setDiffusionCoefficientEstimator()) 
+	 * is shared between the threads, thus it has to be stateless.
+	 * @param tracks Tracks to summarize
+	 * @param correctDrift True, if the drift has to be corrected.
+	 * @param useKalman True, if the tracks are Kalman filtered before
+	 * @param minTrackLength Min. number of detections of a valid track
+	 * @param parallelism Number of threads, 1 = sequential
+	 * @return [i] = Summary of track i
+	 */
+	public static TrackSummary[] summarize(List<Track> tracks, boolean correctDrift, boolean useKalman, int minTrackLength, int parallelism){
+		TrackSummary[] result = new TrackSummary[tracks.size()];
+		if(correctDrift && AllTracks.getInstance().isTimeResolvedDrift()){
+			//Complete the table of the cumulative drift before the threads read it
+			AllTracks.getInstance().getDriftField().getCumulativeDriftX(0);
+		}
+		SummaryTask task = new SummaryTask(tracks, correctDrift, useKalman, minTrackLength, result, 0, tracks.size());
+		if(parallelism > 1 && tracks.size() > 1){
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try{
+				pool.invoke(task);
+			} finally{
+				pool.shutdown();
+			}
+		}
+		else{
+			task.compute();
+		}
+		return result;
+	}
+	
+	private static class SummaryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 16;
+		private List<Track> tracks;
+		private boolean correctDrift;
+		private boolean useKalman;
+		private int minTrackLength;
+		private TrackSummary[] result;
+		private int from;
+		private int to;
+		
+		SummaryTask(List<Track> tracks, boolean correctDrift, boolean useKalman, int minTrackLength, TrackSummary[] result, int from, int to){
+			this.tracks = tracks;
+			this.correctDrift = correctDrift;
+			this.useKalman = useKalman;
+			this.minTrackLength = minTrackLength;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to-from <= THRESHOLD){
+				for(int i = from; i < to; i++){
+					result[i] = tracks.get(i).summarize(correctDrift, useKalman, minTrackLength);
+				}
+				return;
+			}
+			int mid = (from+to)/2;
+			invokeAll(new SummaryTask(tracks, correctDrift, useKalman, minTrackLength, result, from, mid), 
+					new SummaryTask(tracks, correctDrift, useKalman, minTrackLength, result, mid, to));
+		}
+	}
+
 	/**
 	 * 
 	 * @param driftx Drift in x direction
@@ -329,16 +691,15 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	private double getDiffusionCoefficient(double driftx, double drifty){
 
 		double pixelSquared_to_E10x_cmSquared=nmPerPixel*nmPerPixel*Math.pow(10,-4);
-		dc = diffCoeffEst.getDiffusionCoefficient(this, driftx, drifty) * pixelSquared_to_E10x_cmSquared;
-		return dc;
+		return diffCoeffEst.getDiffusionCoefficient(this, driftx, drifty) * pixelSquared_to_E10x_cmSquared;
 	}
 	
 	/**
-	 * @return The last blob of the track
+	 * @return The last blob of the track (a new CenterBlob view, prefer getLastX() / getLastY())
 	 */
 	public Blob getLastBlob(){
 		
-		return this.get(this.size()-1).getBlob();
+		return this.get(size-1).getBlob();
 	}
 	
 	/**
@@ -364,9 +725,9 @@ public class Track extends ArrayList<Step> implements Comparable<Track>{
 	 */
 	public float getMedianHUE(){
 		Median median = new Median();
-		double[] hues = new double[this.size()];
-		for(int i = 0; i < this.size(); i++){
-			hues[i]=((CenterBlob)this.get(i).getBlob()).getHUE();
+		double[] hues = new double[size];
+		for(int i = 0; i < size; i++){
+			hues[i]=hue[i];
 		}
 		return (float)median.evaluate(hues);
 	}
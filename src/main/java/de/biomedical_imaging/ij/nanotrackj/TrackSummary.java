@@ -0,0 +1,121 @@
+/*
+    The MIT License (MIT)
+    
+    NanoTrackJ is a software to characterize the size of nanoparticles by its trajectories
+    Copyright (C) 2013  Thorsten Wagner wagner@biomedical-imaging.de
+
+	Permission is hereby granted, free of charge, to any person obtaining a copy of
+	this software and associated documentation files (the "Software"), to deal in
+	the Software without restriction, including without limitation the rights to
+	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+	the Software, and to permit persons to whom the Software is furnished to do so,
+	subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package de.biomedical_imaging.ij.nanotrackj;
+
+/**
+ * Immutable statistics of a finished track. It is computed once by Track.summarize() when the analysis 
+ * is finished (final drift estimate), afterwards the histograms, the results table and the hue filter only read it.
+ * @author Thorsten Wagner
+ */
+public final class TrackSummary {
+	
+	/**
+	 * A valid track has to move at least this distance [pixel] away from its start
+	 */
+	public static final int MIN_DISTANCE_FROM_START = 5;
+	
+	private final int trackID;
+	private final int length;
+	private final int startFrame;
+	private final int endFrame;
+	private final double diffusionCoefficient;
+	private final double msd;
+	private final double maxDistanceFromStart;
+	private final float medianHue;
+	private final float medianIntensity;
+	private final boolean valid;
+	
+	TrackSummary(Track t, double diffusionCoefficient, double msd, double maxDistanceFromStart, 
+			float medianHue, float medianIntensity, int minTrackLength){
+		trackID = t.getTrackID();
+		length = t.size();
+		startFrame = t.getStartFrameIndex();
+		endFrame = t.getEndFrameIndex();
+		this.diffusionCoefficient = diffusionCoefficient;
+		this.msd = msd;
+		this.maxDistanceFromStart = maxDistanceFromStart;
+		this.medianHue = medianHue;
+		this.medianIntensity = medianIntensity;
+		valid = length >= minTrackLength && diffusionCoefficient > 0 && maxDistanceFromStart > MIN_DISTANCE_FROM_START;
+	}
+	
+	public int getTrackID() {
+		return trackID;
+	}
+	
+	/**
+	 * @return Number of detections
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	public int getStartFrameIndex() {
+		return startFrame;
+	}
+	
+	public int getEndFrameIndex() {
+		return endFrame;
+	}
+	
+	/**
+	 * @return The diffusion coefficient in 10^-10 cm^2 / s
+	 */
+	public double getDiffusionCoefficient() {
+		return diffusionCoefficient;
+	}
+	
+	/**
+	 * @return The mean squared displacement for timelag 1 [pixel^2]
+	 */
+	public double getMeanSquareDisplacement() {
+		return msd;
+	}
+	
+	/**
+	 * @return Max. distance (L1) from the first detection [pixel]
+	 */
+	public double getMaxDistanceFromStart() {
+		return maxDistanceFromStart;
+	}
+	
+	/**
+	 * @return The median hue (NaN for grayscale images)
+	 */
+	public float getMedianHue() {
+		return medianHue;
+	}
+	
+	public float getMedianIntensity() {
+		return medianIntensity;
+	}
+	
+	/**
+	 * @return True if the track has the min. track length, a positive diffusion coefficient and is moving
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+}
@@ -25,17 +25,45 @@
 package de.biomedical_imaging.ij.nanotrackj;
 
 import ij.blob.*;
+
+import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.HashMap;
 
 public class TrackSynthesizer {
 	private double searchradius;
+	private int linker = LINKER_UNAMBIGUOUS;
+	private int maxGap = 0;								// Maximum number of frames without detection which are bridged, 0 = no gap closing
+	/**
+	 * LINKER_UNAMBIGUOUS: A blob is only linked if it is the only candidate of a track and the track is its only candidate.
+	 * LINKER_LAP: Globally optimal frame-to-frame assignment which minimizes the sum of squared displacements.
+	 */
+	public static final int LINKER_UNAMBIGUOUS = 0, LINKER_LAP = 1;
 	
 	public TrackSynthesizer(double radius) {
 		searchradius = radius;
 		// TODO Auto-generated constructor stub
 	}
 	
+	/**
+	 * @param radius Search radius
+	 * @param linker Linker type (LINKER_UNAMBIGUOUS or LINKER_LAP)
+	 */
+	public TrackSynthesizer(double radius, int linker) {
+		searchradius = radius;
+		this.linker = linker;
+	}
+	
+	/**
+	 * Enables gap closing. A track which is not continued stays open for maxGap frames. A detection 
+	 * after a gap of g frames is searched within searchradius*sqrt(g+1), as the expected displacement 
+	 * of a diffusing particle grows with the square root of the time lag. Tracks with short gaps are preferred.
+	 * @param maxGap Maximum number of frames without detection which are bridged, 0 = no gap closing (default)
+	 */
+	public void setMaxGap(int maxGap){
+		this.maxGap = maxGap;
+	}
+	
 	public void archiveOpenTracks(){
 		AllTracks.getInstance().finishAllOpenTracks();
 	}
@@ -44,25 +72,103 @@ public class TrackSynthesizer {
 		
 		AllTracks allTracks = AllTracks.getInstance();
 		if(frameIndex==1){
-			allTracks.clear();
-			allTracks.getFinishedTracks().clear();
+			allTracks.reset();
 		}
-
+		
+		//Tracks which were continued in the last frame
+		ArrayList<Track> activeTracks = allTracks.getTracksEndedAt(frameIndex-1);
+		
+		boolean[] startsNewTrack = new boolean[blobs.size()];
+		Track[] trackOfBlob = link(activeTracks, blobs, searchradius, startsNewTrack);
+		if(maxGap > 0){
+			closeGaps(blobs, trackOfBlob, startsNewTrack, frameIndex);
+		}
+		
+		//Continue the tracks and start new tracks
+		for(int b = 0; b < blobs.size(); b++){
+			if(trackOfBlob[b] != null){
+				trackOfBlob[b].add(blobs.get(b), frameIndex);
+			}else if(startsNewTrack[b]){
+				Track t = new Track(frameIndex);
+				t.add(blobs.get(b), frameIndex);
+				allTracks.add(t);
+			}
+		}
+		
+		//Schließe alle nicht geupdateden tracks...
+		allTracks.finishTracksEndedBefore(frameIndex-maxGap);
+		
+	}
+	
+	/**
+	 * Links the blobs which would start a new track to the tails of tracks with a gap. The gaps are 
+	 * processed from short to long, each with its own search radius.
+	 */
+	private void closeGaps(ArrayList<Blob> blobs, Track[] trackOfBlob, boolean[] startsNewTrack, int frameIndex){
+		for(int gap = 1; gap <= maxGap; gap++){
+			int endFrame = frameIndex-1-gap;
+			if(endFrame < 1){
+				break;
+			}
+			ArrayList<Track> tails = AllTracks.getInstance().getTracksEndedAt(endFrame);
+			ArrayList<Blob> remainingBlobs = new ArrayList<Blob>();
+			ArrayList<Integer> remainingIndex = new ArrayList<Integer>();
+			for(int b = 0; b < blobs.size(); b++){
+				if(trackOfBlob[b]==null && startsNewTrack[b]){
+					remainingBlobs.add(blobs.get(b));
+					remainingIndex.add(b);
+				}
+			}
+			if(tails.isEmpty() || remainingBlobs.isEmpty()){
+				continue;
+			}
+			Track[] tailOfBlob = link(tails, remainingBlobs, searchradius*Math.sqrt(gap+1), new boolean[remainingBlobs.size()]);
+			for(int i = 0; i < tailOfBlob.length; i++){
+				if(tailOfBlob[i] != null){
+					trackOfBlob[remainingIndex.get(i)] = tailOfBlob[i];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Links the blobs to the tracks with the selected linker.
+	 * @param tracks Tracks which could be continued
+	 * @param blobs Blobs of the current frame
+	 * @param radius Search radius
+	 * @param startsNewTrack [b] is set to true if blob b is not linked and should start a new track
+	 * @return [b] = Track which is continued by blob b, null if blob b is not linked
+	 */
+	private Track[] link(ArrayList<Track> tracks, ArrayList<Blob> blobs, double radius, boolean[] startsNewTrack){
+		if(linker==LINKER_LAP){
+			return linkGlobalOptimal(tracks, blobs, radius, startsNewTrack);
+		}
+		return linkUnambiguous(tracks, blobs, radius, startsNewTrack);
+	}
+	
+	/**
+	 * Links only unambiguous pairs. A blob with several candidate tracks or a track with several 
+	 * candidate blobs ends the track resp. is not used.
+	 */
+	private Track[] linkUnambiguous(ArrayList<Track> tracks, ArrayList<Blob> blobs, double radius, boolean[] startsNewTrack){
 		HashMap<Blob,ArrayList<Track>> mapBlobToTrack = new HashMap<Blob,ArrayList<Track>> ();
 		HashMap<Track,ArrayList<Blob>> mapTrackToBlob = new HashMap<Track,ArrayList<Blob>> ();
+		BlobGrid grid = new BlobGrid(blobs, radius);
 
 		//Match all candidate Blobs to Tracks.
-		for (Track track : allTracks) 
+		for (Track track : tracks) 
 		{
-			// Get the last blob from track
-			Blob lastBlobOfTrack =  track.getLastBlob();
+			// Get the last position of the track
+			float lastX = track.getLastX();
+			float lastY = track.getLastY();
 			
 			ArrayList<Blob> candidateBlobs = mapTrackToBlob.get(track);
 			
-			for (Blob candBlob : blobs)
+			for (int candIndex : grid.getNeighbours(lastX, lastY))
 			{
+				Blob candBlob = blobs.get(candIndex);
 				//A blob could only be assigned if the distance to the last blob in track is smaller than the searchradius.
-				if(isInsideRadius(lastBlobOfTrack, candBlob,searchradius)){
+				if(isInsideRadius(lastX, lastY, candBlob,radius)){
 					
 					//Gibt es schon zu diesem Kandidaten Tracks die ihn enthalten?
 					ArrayList<Track> candidateTracks = mapBlobToTrack.get(candBlob);
@@ -92,44 +198,136 @@ public class TrackSynthesizer {
 		}
 		
 		//Assign a blob to a track
-		for (Blob blobToAssign : blobs)
+		Track[] trackOfBlob = new Track[blobs.size()];
+		for (int b = 0; b < blobs.size(); b++)
 		{
-			ArrayList<Track> listOfCandidateTracks = mapBlobToTrack.get(blobToAssign);
-
-			Step s = new Step(blobToAssign,frameIndex);
+			ArrayList<Track> listOfCandidateTracks = mapBlobToTrack.get(blobs.get(b));
 			
 			if(listOfCandidateTracks==null){
 				//Neuer Track
-				Track t = new Track(frameIndex);
-				t.add(s);
-				allTracks.add(t);
+				startsNewTrack[b] = true;
 			}
 			else if(listOfCandidateTracks.size() == 1) {
 				// Track fortsetzen
 				ArrayList<Blob> listOfCandidateBlobs = mapTrackToBlob.get(listOfCandidateTracks.get(0));
 				if(listOfCandidateBlobs.size()==1){
-					listOfCandidateTracks.get(0).add(s);
+					trackOfBlob[b] = listOfCandidateTracks.get(0);
 				}
 			}
 
 		}
+		return trackOfBlob;
+	}
+	
+	/**
+	 * Links the blobs to the tracks by solving a linear assignment problem on the graph of candidate 
+	 * pairs (distance smaller than the search radius). A link costs the squared displacement, an 
+	 * unlinked track or blob costs the squared search radius (Jaqaman, K. et al., 2008. Robust single-particle 
+	 * tracking in live-cell time-lapse sequences. Nature Methods, 5(8), pp.695-702). 
+	 * Only the candidate pairs are passed to the sparse solver, thus the costs grow with the number of 
+	 * candidates instead of the squared number of tracks. All unlinked blobs start new tracks.
+	 */
+	private Track[] linkGlobalOptimal(ArrayList<Track> tracks, ArrayList<Blob> blobs, double radius, boolean[] startsNewTrack){
+		int numberOfTracks = tracks.size();
+		BlobGrid grid = new BlobGrid(blobs, radius);
 		
-		//Schließe alle nicht geupdateden tracks...
-		for(int i = 0; i < allTracks.size(); i++){
-			if(allTracks.get(i).getEndFrameIndex() < frameIndex){
-				allTracks.finishTrack(i);
+		//Minimizing the sum of the link costs and the alternative costs is the same as minimizing the 
+		//sum of d^2 - 2*alternativeCost over the links, an unlinked track costs nothing.
+		double alternativeCost = radius*radius;
+		int[] rowStart = new int[numberOfTracks+1];
+		int[] columns = new int[Math.max(16, 4*numberOfTracks)];
+		double[] costs = new double[columns.length];
+		int entries = 0;
+		for(int t = 0; t < numberOfTracks; t++){
+			float lastX = tracks.get(t).getLastX();
+			float lastY = tracks.get(t).getLastY();
+			rowStart[t] = entries;
+			for (int candIndex : grid.getNeighbours(lastX, lastY)) {
+				double d = blobs.get(candIndex).getCenterOfGravity().distance(lastX, lastY);
+				if(d < radius){
+					if(entries == columns.length){
+						columns = java.util.Arrays.copyOf(columns, 2*entries);
+						costs = java.util.Arrays.copyOf(costs, 2*entries);
+					}
+					columns[entries] = candIndex;
+					costs[entries] = d*d - 2*alternativeCost;
+					entries++;
+				}
 			}
 		}
+		rowStart[numberOfTracks] = entries;
 		
+		int[] assignment = LinearAssignment.solve(blobs.size(), rowStart, columns, costs);
+		Track[] trackOfBlob = new Track[blobs.size()];
+		for(int t = 0; t < numberOfTracks; t++){
+			if(assignment[t] >= 0){
+				trackOfBlob[assignment[t]] = tracks.get(t);
+			}
+		}
+		for(int b = 0; b < blobs.size(); b++){
+			startsNewTrack[b] = (trackOfBlob[b] == null);
+		}
+		return trackOfBlob;
 	}
-
+	
 	/**
-	 * Checks if the distance between blob a and b is smaller as a specific radius
+	 * Checks if the distance between the position (x,y) and blob b is smaller as a specific radius
 	 * @return True if the distance is smaller than the specified radius.
 	 */
-	private boolean isInsideRadius(Blob a, Blob b, double radius){
-		double d = a.getCenterOfGravity().distance(b.getCenterOfGravity());
+	private boolean isInsideRadius(double x, double y, Blob b, double radius){
+		double d = b.getCenterOfGravity().distance(x, y);
 		return d < radius;
 	}
 	
+	/**
+	 * Uniform grid over the blobs of a frame. The cell size equals the search radius, thus all blobs 
+	 * inside the search radius of a position are in its cell or in one of the eight neighbouring cells.
+	 */
+	private static class BlobGrid {
+		private HashMap<Long,ArrayList<Integer>> cells;
+		private double cellSize;
+		
+		BlobGrid(ArrayList<Blob> blobs, double cellSize){
+			this.cellSize = cellSize;
+			cells = new HashMap<Long,ArrayList<Integer>>();
+			for (int i = 0; i < blobs.size(); i++) {
+				Point2D p = blobs.get(i).getCenterOfGravity();
+				Long key = getKey(getCell(p.getX()), getCell(p.getY()));
+				ArrayList<Integer> cell = cells.get(key);
+				if(cell==null){
+					cell = new ArrayList<Integer>();
+					cells.put(key, cell);
+				}
+				cell.add(i);
+			}
+		}
+		
+		private long getCell(double v){
+			return (long)Math.floor(v/cellSize);
+		}
+		
+		private Long getKey(long cx, long cy){
+			return (cx << 32) ^ (cy & 0xffffffffL);
+		}
+		
+		/**
+		 * @return Indices of all blobs in the cell of the position (px,py) and in the neighbouring cells. They are candidates, the 
+		 * distance still has to be checked.
+		 */
+		ArrayList<Integer> getNeighbours(double px, double py){
+			long cx = getCell(px);
+			long cy = getCell(py);
+			ArrayList<Integer> neighbours = new ArrayList<Integer>();
+			for(long x = cx-1; x <= cx+1; x++){
+				for(long y = cy-1; y <= cy+1; y++){
+					ArrayList<Integer> cell = cells.get(getKey(x, y));
+					if(cell!=null){
+						neighbours.addAll(cell);
+					}
+				}
+			}
+			return neighbours;
+		}
+	}
+	
 }
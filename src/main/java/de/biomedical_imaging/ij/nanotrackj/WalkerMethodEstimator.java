@@ -26,7 +26,15 @@ package de.biomedical_imaging.ij.nanotrackj;
 
 import ij.IJ;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
 import org.apache.commons.math3.special.Gamma;
+import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 import org.apache.commons.math3.stat.descriptive.summary.Sum;
 /**
  * Implements Walker, J.G., 2012. Improved nano-particle tracking analysis. Measurement Science and Technology, 23(6), p.065605.
@@ -54,6 +62,35 @@ public class WalkerMethodEstimator {
 	private double lastChiSquared;
 	private double[] logMapK;
 	private double[] logMapGammaK;
+	private double thetaFactor;									// theta = thetaFactor / r
+	private double[] radius;									// [m] = radius of the m-th bin of the current grid [cm]
+	private double[] logTheta;									// [m] = log(theta) for radius[m]
+	private double[] invTheta;									// [m] = 1/theta for radius[m]
+	private double[][] kernel;									// [k][m] = Probability density of rowMSD[k] (tracklength rowK[k]) for radius[m]
+	private double[][] histogramKernel;							// [b][m] = Expected count of MSD bin b for radius[m], summed over the tracklengths
+	private double[] rowMSD;									// MSD of each kernel row (a track or a group of tracks)
+	private double[] rowK;										// Tracklength of each kernel row
+	private double[] rowWeight;									// Number of tracks of each kernel row
+	private int[] rowOfTrack;									// [i] = Kernel row of the i-th track
+	private double compressionResolution = 0;					// Relative width of the MSD grid for grouping tracks, 0 = no grouping
+	private double compressionError = 0;						// Maximum relative deviation between the MSD of a track and its group
+	private long maxKernelMemory = 256L*1024*1024; 				// [byte]
+	private int parallelism = Runtime.getRuntime().availableProcessors(); // Number of threads, 1 = sequential
+	private ForkJoinPool pool;
+	private static final int TRACKS_PER_TASK = 256;
+	private boolean useAcceleration = false;					// If true, the EM iterations are accelerated by SQUAREM
+	private int maxIterations = 0;								// Iteration budget, 0 = unlimited
+	private long maxTime = 0;									// Time budget [ms], 0 = unlimited
+	private int kernelPasses;									// Number of EM steps (passes over the kernel) of the last estimation
+	private ArrayList<double[]> trace;							// Convergence trace of the last estimation
+	private long startTime;										// Start of the last estimation [ms]
+	private int iteration;										// Iterations of the last estimation
+	private boolean useMultiResolution = false;					// If true, the estimation starts on a coarse radius grid which is refined where the density is significant
+	private int minCoarseBinNumber = 32;						// Minimum number of bins of the coarsest grid
+	private double refinementThreshold = 0.001;					// Bins with a larger probability are refined
+	private long bootstrapSeed = 0;								// Seed of the first bootstrap replicate, replicate j uses bootstrapSeed+j
+	private static final double BOOTSTRAP_TOLERANCE = 1e-6;		// Relative change of the log-likelihood which stops a bootstrap replicate
+	private static final int BOOTSTRAP_MAX_ITERATIONS = 1000;
 	/**
 	 * 
 	 * @param data Containes the mean squared displacement and the Tracklength for each track. data[i][0] = MSD data[i][1] = Tracklength
@@ -96,6 +133,11 @@ public class WalkerMethodEstimator {
 		logMapGammaK=new double[kMax+1];
 		java.util.Arrays.fill(logMapK, Double.NaN);
 		java.util.Arrays.fill(logMapGammaK, Double.NaN);
+		for(int k = kMin; k <= kMax; k++){
+			//Fill the tables in advance, so that they are only read during the (parallel) estimation
+			logK(k);
+			logGammaK(k);
+		}
 		maxRadiusInNm = maxdiameter/2.0;
 		if(maxdiameter==0){
 			maxRadiusInNm = NanoTrackJ_.getInstance().diffCoeffToDiameter((msdMin* Math.pow(10, 10))/4 * (framerate));
@@ -118,18 +160,274 @@ public class WalkerMethodEstimator {
 			
 			histogramMSD[index2]++;
 		}
+		
+		thetaFactor = (2*kB*temp*this.framerate)/(3*Math.PI*visk);
+	}
+	
+	/**
+	 * Sets the radius grid for the kernel. Each bin of the grid covers a range of bins of 
+	 * the fine grid (bin size binSizeInnm) and is represented by its mean radius.
+	 * @param start [m] = first fine bin covered by bin m
+	 * @param end [m] = first fine bin not covered by bin m anymore
+	 */
+	private void setRadiusGrid(int[] start, int[] end){
+		radius = new double[start.length];
+		logTheta = new double[start.length];
+		invTheta = new double[start.length];
+		for(int m = 0; m < start.length; m++){
+			radius[m] = (start[m]+1+end[m])/2.0*deltaR;
+			logTheta[m] = Math.log(thetaFactor/radius[m]);
+			invTheta[m] = radius[m]/thetaFactor;
+		}
+		histogramKernel = null; //Depends on the grid
+	}
+	
+	/**
+	 * Sets the fine radius grid with the bin size binSizeInnm.
+	 */
+	private void setFineRadiusGrid(){
+		int[] start = new int[binNumber];
+		int[] end = new int[binNumber];
+		for(int m = 0; m < binNumber; m++){
+			start[m] = m;
+			end[m] = m+1;
+		}
+		setRadiusGrid(start, end);
+	}
+	
+	/**
+	 * Enables the multi-resolution mode. The density is first estimated on a coarse radius grid. 
+	 * Afterwards all bins with a significant probability are split into halves and the estimation 
+	 * continues on the refined grid, seeded by the previous result. This is repeated until the 
+	 * significant bins reach the fine bin size. Bins without significant probability 
+	 * keep their coarse size, their probability is spread uniformly over the fine bins in the result.
+	 * The mode trades accuracy for speed: Bins which are not refined appear as flat plateaus in the 
+	 * result and the mode of the density may differ by about one fine bin from the fixed grid estimate.
+	 * @param multiResolution True if the multi-resolution mode should be used, false for a fixed grid (default)
+	 */
+	public void setMultiResolution(boolean multiResolution){
+		useMultiResolution = multiResolution;
+	}
+	
+	/**
+	 * @param threshold Bins of the multi-resolution grid with a larger probability than threshold are refined (default: 0.001)
+	 */
+	public void setRefinementThreshold(double threshold){
+		refinementThreshold = threshold;
+	}
+	
+	/**
+	 * Limits the memory which is used for the precomputed kernel matrix. If the matrix would need more memory, 
+	 * the kernel rows are evaluated on the fly in each iteration.
+	 * @param bytes Maximum size of the kernel matrix in bytes
+	 */
+	public void setMaxKernelMemory(long bytes){
+		maxKernelMemory = bytes;
+	}
+	
+	/**
+	 * Enables the compressed mode. The tracks are grouped by their exact length and a logarithmic 
+	 * MSD grid. Each group enters the estimation as a single kernel row, weighted by its number of tracks. 
+	 * The MSD of a group is the mean MSD of its tracks.
+	 * @param relativeResolution Relative width of the MSD grid (e.g. 0.001), 0 = No compression (default)
+	 */
+	public void setCompression(double relativeResolution){
+		compressionResolution = relativeResolution;
+	}
+	
+	/**
+	 * @return The maximum relative deviation between the MSD of a track and the MSD of its group in the compressed mode (0 if not compressed).
+	 */
+	public double getCompressionError(){
+		return compressionError;
+	}
+	
+	/**
+	 * @return Number of kernel rows of the last estimation, i.e. number of tracks or number of groups in the compressed mode.
+	 */
+	public int getNumberOfKernelRows(){
+		if(rowMSD==null){
+			return 0;
+		}
+		return rowMSD.length;
 	}
 	
-	private double probMSD(double msd, double k, double r){
+	/**
+	 * Initializes the rows of the kernel. Without compression each track is a row. 
+	 */
+	private void initRows(){
+		compressionError = 0;
+		if(compressionResolution <= 0){
+			rowMSD = new double[data.length];
+			rowK = new double[data.length];
+			rowWeight = new double[data.length];
+			rowOfTrack = new int[data.length];
+			for(int i = 0; i < data.length; i++){
+				rowMSD[i] = data[i][0];
+				rowK[i] = data[i][1];
+				rowWeight[i] = 1;
+				rowOfTrack[i] = i;
+			}
+			return;
+		}
 		
-		double pmsd=0;
-		double thetaFactor = (2*kB*temp*framerate)/(3*Math.PI*visk);
-		double theta = thetaFactor/r;
-		pmsd = (logK(k)+(k-1)*(logK(k)+Math.log(msd)) + (-k*msd/theta) ) - (k*Math.log(theta) + logGammaK(k)); 
-		//pmsd = (Math.log(k)+(k-1)*(Math.log(k)+Math.log(msd)) + (-k*msd/theta) ) - (k*Math.log(theta) + Gamma.logGamma(k)); 
-		pmsd = Math.exp(pmsd);
-		return pmsd;
+		HashMap<Long, Integer> groupIndex = new HashMap<Long, Integer>();
+		int[] groupOfTrack = new int[data.length];
+		double[] sumMSD = new double[data.length];
+		double[] count = new double[data.length];
+		double[] k = new double[data.length];
+		double logWidth = Math.log1p(compressionResolution);
+		int groups = 0;
+		for(int i = 0; i < data.length; i++){
+			long msdBin = (long)Math.floor(Math.log(data[i][0])/logWidth);
+			Long key = (msdBin << 20) | (long)data[i][1];
+			Integer g = groupIndex.get(key);
+			if(g==null){
+				g = groups;
+				groupIndex.put(key, g);
+				k[g] = data[i][1];
+				groups++;
+			}
+			groupOfTrack[i] = g;
+			sumMSD[g] += data[i][0];
+			count[g]++;
+		}
 		
+		rowMSD = new double[groups];
+		rowK = new double[groups];
+		rowWeight = new double[groups];
+		for(int g = 0; g < groups; g++){
+			rowMSD[g] = sumMSD[g]/count[g];
+			rowK[g] = k[g];
+			rowWeight[g] = count[g];
+		}
+		for(int i = 0; i < data.length; i++){
+			double err = Math.abs(data[i][0]-rowMSD[groupOfTrack[i]])/data[i][0];
+			if(err > compressionError){
+				compressionError = err;
+			}
+		}
+		rowOfTrack = groupOfTrack;
+		IJ.log("Walker's method: " + data.length + " tracks compressed into " + groups + " groups (max. relative MSD error: " 
+				+ IJ.d2s(compressionError*100, 3) + " %)");
+	}
+	
+	/**
+	 * Enables the SQUAREM acceleration (Varadhan, R. & Roland, C., 2008. Simple and globally convergent methods 
+	 * for accelerating the convergence of any EM algorithm. Scandinavian Journal of Statistics, 35(2), pp.335-353). 
+	 * Each iteration extrapolates two EM steps and stabilizes the result with a third one. If the 
+	 * extrapolation decreases the likelihood, the plain EM steps are used instead.
+	 * @param accelerate True if the SQUAREM scheme should be used, false for plain EM (default)
+	 */
+	public void setAcceleration(boolean accelerate){
+		useAcceleration = accelerate;
+	}
+	
+	/**
+	 * Limits the number of iterations and the time of the estimation. If a budget is exhausted, 
+	 * the current density is returned.
+	 * @param iterations Maximum number of iterations, 0 = unlimited
+	 * @param timeInMs Maximum time in milliseconds, 0 = unlimited
+	 */
+	public void setBudget(int iterations, long timeInMs){
+		maxIterations = iterations;
+		maxTime = timeInMs;
+	}
+	
+	/**
+	 * @return The number of passes over the kernel (EM steps) of the last estimation
+	 */
+	public int getNumberOfKernelPasses(){
+		return kernelPasses;
+	}
+	
+	/**
+	 * @return Convergence trace of the last estimation. [i][0] = Iteration, [i][1] = Number of kernel passes, 
+	 * [i][2] = Chi-squared, [i][3] = Log-likelihood (per track), [i][4] = Elapsed time in ms
+	 */
+	public double[][] getConvergenceTrace(){
+		if(trace==null){
+			return new double[0][5];
+		}
+		return trace.toArray(new double[trace.size()][]);
+	}
+	
+	/**
+	 * Sets the number of threads which are used for the EM update and the model histogram. 
+	 * The parallel results differ from the sequential ones only by the order of the floating point 
+	 * summation over tracks (relative deviation of the density below 1e-10).
+	 * @param threads Number of threads. 1 = sequential, 0 = number of available cores (default)
+	 */
+	public void setParallelism(int threads){
+		if(threads <= 0){
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		parallelism = threads;
+	}
+	
+	/**
+	 * @return The memory used by the precomputed kernel matrix in bytes (0 if the kernel is evaluated on the fly)
+	 */
+	public long getKernelMemory(){
+		if(kernel==null){
+			return 0;
+		}
+		return 8L*kernel.length*radius.length;
+	}
+	
+	/**
+	 * Precomputes the track-by-bin probability matrix if it fits into the memory limit.
+	 */
+	private void initKernel(){
+		long requiredMemory = 8L*rowMSD.length*radius.length;
+		if(requiredMemory > maxKernelMemory){
+			kernel = null;
+			IJ.log("Walker's method: The kernel matrix would need " + IJ.d2s(requiredMemory/(1024.0*1024.0),1) + " MB (limit: " 
+					+ IJ.d2s(maxKernelMemory/(1024.0*1024.0),1) + " MB). It is evaluated on the fly.");
+			return;
+		}
+		kernel = new double[rowMSD.length][radius.length];
+		for(int k = 0; k < rowMSD.length; k++){
+			fillKernelRow(rowMSD[k], rowK[k], kernel[k]);
+		}
+	}
+	
+	/**
+	 * @param k Index of the kernel row
+	 * @param buffer Used if the kernel matrix is not precomputed
+	 * @return [m] = Probability density of rowMSD[k] (tracklength rowK[k]) for radius[m]
+	 */
+	private double[] getKernelRow(int k, double[] buffer){
+		if(kernel != null){
+			return kernel[k];
+		}
+		fillKernelRow(rowMSD[k], rowK[k], buffer);
+		return buffer;
+	}
+	
+	/**
+	 * Evaluates the probability density of the MSD for all radius bins at once.
+	 */
+	private void fillKernelRow(double msd, double k, double[] row){
+		fillKernelRow(msd, k, logK(k), logGammaK(k), logTheta, invTheta, row);
+	}
+	
+	/**
+	 * Evaluates the probability density of the MSD of a track for all radius bins. 
+	 * theta is the expected MSD for the radius of a bin.
+	 * @param msd Mean squared displacement [cm^2]
+	 * @param k Tracklength
+	 * @param logK log(k)
+	 * @param logGammaK logGamma(k)
+	 * @param logTheta [m] = log(theta) of bin m
+	 * @param invTheta [m] = 1/theta of bin m
+	 * @param row [m] = Probability density of the msd for bin m
+	 */
+	static void fillKernelRow(double msd, double k, double logK, double logGammaK, double[] logTheta, double[] invTheta, double[] row){
+		double c = logK+(k-1)*(logK+Math.log(msd)) - logGammaK;
+		for(int m = 0; m < row.length; m++){
+			row[m] = Math.exp(c - k*msd*invTheta[m] - k*logTheta[m]);
+		}
 	}
 	
 	private double logK(double k){
@@ -148,23 +446,64 @@ public class WalkerMethodEstimator {
 		return logMapGammaK[(int)k];
 	}
 
+	/**
+	 * Calculates the model histogram by a contraction of the cached histogram kernel with the density.
+	 * @return [b] = Expected number of tracks in MSD bin b
+	 */
 	private double[] getHistogramML(double[] pm){
+		if(histogramKernel == null){
+			initHistogramKernel();
+		}
+		double sumpm = 0;
+		for(int m = 0; m < pm.length; m++){
+			sumpm += pm[m];
+		}
 		double[] histMl = new double[histBinNumber];
+		for(int b = 0; b < histBinNumber; b++){
+			double[] row = histogramKernel[b];
+			double innersum = 0;
+			for(int m = 0; m < pm.length; m++){
+				innersum += row[m]*pm[m];
+			}
+			histMl[b] = innersum/sumpm;
+		}
+		return histMl;
+	}
 	
-		Sum sum = new Sum();
-		for(int b = 0; b < histMl.length; b++){
-			double outersum = 0;
+	/**
+	 * Precomputes the histogram kernel for the current radius grid. It does not depend on the density 
+	 * and is therefore reused by all convergence checks on the same grid.
+	 */
+	private void initHistogramKernel(){
+		histogramKernel = new double[histBinNumber][];
+		if(pool != null){
+			pool.invoke(new HistogramTask(0, histBinNumber));
+		}else{
+			fillHistogramKernel(0, histBinNumber);
+		}
+	}
+	
+	/**
+	 * Calculates the rows of the histogram kernel for the MSD bins from (inclusive) to (exclusive). 
+	 * The probabilities of the different tracklengths k are summed up, weighted by their number of tracks Nk[k].
+	 */
+	private void fillHistogramKernel(int from, int to){
+		double[] prob = new double[radius.length];
+		for(int b = from; b < to; b++){
+			double msd = (b+1)*deltaB;
+			double[] row = new double[radius.length];
 			for(int k = kMin; k <= kMax; k++){
-				double sumpm = sum.evaluate(pm);
-				double innersum = 0;
-				for(int m = 0; m < pm.length; m++){
-					innersum += (probMSD((b+1)*deltaB, k, (m+1)*deltaR) * deltaB * pm[m])/sumpm;
+				if(Nk[k] == 0){
+					continue;
+				}
+				fillKernelRow(msd, k, prob);
+				double w = Nk[k]*deltaB;
+				for(int m = 0; m < row.length; m++){
+					row[m] += w*prob[m];
 				}
-				outersum += Nk[k]*innersum;
 			}
-			histMl[b] = outersum;
+			histogramKernel[b] = row;
 		}
-		return histMl;
 	}
 	
 	private double getChiSquared(double[] pm){
@@ -177,43 +516,230 @@ public class WalkerMethodEstimator {
 		return sumchi;
 	}
 	
+	/**
+	 * One EM step as described by Walker (2012). The denominators for all tracks are 
+	 * calculated by a single product of the kernel matrix with the current density.
+	 * @param dens Current density, will be updated
+	 * @return Log-likelihood (per track) of the density before the update
+	 */
+	private double updateDensity(double[] dens){
+		double sumpm = 0;
+		for(int m = 0; m < dens.length; m++){
+			sumpm += dens[m];
+		}
+		double[] help2;
+		if(pool != null){
+			help2 = pool.invoke(new EMTask(dens, sumpm, 0, rowMSD.length));
+		}else{
+			help2 = getEMSums(dens, rowWeight, sumpm, 0, rowMSD.length);
+		}
+		for(int m = 0; m < dens.length; m++){
+			dens[m] = dens[m] * 1.0/data.length * help2[m];
+		}
+		kernelPasses++;
+		return help2[dens.length]/data.length;
+	}
+	
+	/**
+	 * One SQUAREM iteration (scheme S3) with a monotonicity safeguard.
+	 * @param dens Current density, will be updated
+	 * @return Log-likelihood (per track) of the density before the last EM step
+	 */
+	private double updateDensityAccelerated(double[] dens){
+		double[] x1 = dens.clone();
+		updateDensity(x1);
+		double[] x2 = x1.clone();
+		double logLikX1 = updateDensity(x2);
+		
+		double normR = 0;
+		double normV = 0;
+		for(int m = 0; m < dens.length; m++){
+			double r = x1[m]-dens[m];
+			double v = x2[m]-2*x1[m]+dens[m];
+			normR += r*r;
+			normV += v*v;
+		}
+		if(normV == 0){
+			System.arraycopy(x2, 0, dens, 0, dens.length);
+			return logLikX1;
+		}
+		double alpha = -Math.sqrt(normR/normV);
+		if(alpha > -1){
+			alpha = -1;
+		}
+		double[] x3 = new double[dens.length];
+		for(int m = 0; m < dens.length; m++){
+			double r = x1[m]-dens[m];
+			double v = x2[m]-2*x1[m]+dens[m];
+			x3[m] = dens[m] - 2*alpha*r + alpha*alpha*v;
+			if(!(x3[m] > 0)){
+				x3[m] = Double.MIN_NORMAL; //Keep the bin alive for the following EM steps
+			}
+		}
+		double logLikExtrapolated = updateDensity(x3);
+		if(Double.isNaN(logLikExtrapolated) || logLikExtrapolated < logLikX1){
+			//Safeguard: The extrapolation is worse than the plain EM steps
+			System.arraycopy(x2, 0, dens, 0, dens.length);
+			return logLikX1;
+		}
+		System.arraycopy(x3, 0, dens, 0, dens.length);
+		return logLikExtrapolated;
+	}
+	
+	/**
+	 * Calculates the EM sums for the kernel rows from (inclusive) to (exclusive)
+	 * @param weights [k] = Number of tracks of row k
+	 * @return [m] = weighted sum over rows of p(msd_k | r_m) / (sum over l of p(msd_k | r_l)*p_l), where p is the kernel row, 
+	 * [dens.length] = weighted sum of the log-likelihoods of the rows
+	 */
+	private double[] getEMSums(double[] dens, double[] weights, double sumpm, int from, int to){
+		double[] help2 = new double[dens.length+1];
+		double[] buffer = new double[dens.length];
+		for(int k = from; k < to; k++){
+			if(weights[k] == 0){
+				continue; //Row is not part of the (bootstrap) sample
+			}
+			double[] prob = getKernelRow(k, buffer);
+			double help1 = 0;
+			for(int l = 0; l < dens.length; l++){
+				help1 += prob[l]*dens[l];
+			}
+			help1 = help1/sumpm;
+			if(help1 == 0){
+				continue; //Track is not explained by any radius of the grid
+			}
+			double w = weights[k]/help1;
+			for(int m = 0; m < dens.length; m++){
+				help2[m] += prob[m]*w;
+			}
+			help2[dens.length] += weights[k]*Math.log(help1);
+		}
+		return help2;
+	}
+	
+	/**
+	 * Splits the EM sums over the kernel rows and reduces the partial sums.
+	 */
+	@SuppressWarnings("serial")
+	private class EMTask extends RecursiveTask<double[]> {
+		private double[] dens;
+		private double sumpm;
+		private int from;
+		private int to;
+		
+		EMTask(double[] dens, double sumpm, int from, int to){
+			this.dens = dens;
+			this.sumpm = sumpm;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected double[] compute() {
+			if(to-from <= TRACKS_PER_TASK){
+				return getEMSums(dens, rowWeight, sumpm, from, to);
+			}
+			int mid = (from+to)/2;
+			EMTask left = new EMTask(dens, sumpm, from, mid);
+			left.fork();
+			double[] help2 = new EMTask(dens, sumpm, mid, to).compute();
+			double[] help2Left = left.join();
+			for(int m = 0; m < help2.length; m++){
+				help2[m] = help2Left[m] + help2[m];
+			}
+			return help2;
+		}
+	}
+	
+	/**
+	 * Splits the bootstrap replicates over the threads.
+	 */
+	@SuppressWarnings("serial")
+	private class BootstrapTask extends RecursiveAction {
+		private double[] start;
+		private double[][] replicateDens;
+		private int from;
+		private int to;
+		
+		BootstrapTask(double[] start, double[][] replicateDens, int from, int to){
+			this.start = start;
+			this.replicateDens = replicateDens;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to-from <= 1){
+				for(int j = from; j < to; j++){
+					replicateDens[j] = estimateReplicate(start, bootstrapSeed+j);
+				}
+				return;
+			}
+			int mid = (from+to)/2;
+			invokeAll(new BootstrapTask(start, replicateDens, from, mid), new BootstrapTask(start, replicateDens, mid, to));
+		}
+	}
+	
+	/**
+	 * Splits the histogram kernel over its MSD bins.
+	 */
+	@SuppressWarnings("serial")
+	private class HistogramTask extends RecursiveAction {
+		private int from;
+		private int to;
+		
+		HistogramTask(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to-from <= 1){
+				fillHistogramKernel(from, to);
+				return;
+			}
+			int mid = (from+to)/2;
+			invokeAll(new HistogramTask(from, mid), new HistogramTask(mid, to));
+		}
+	}
+	
 	/**
 	 * 
 	 * @return Histogram [i][j]: i = bin, j = density
 	 */
 	public double[][] estimate() {
 		
-		double[] dens = new double[binNumber];
-		java.util.Arrays.fill(dens, 1.0/binNumber);
 		Sum sum = new Sum();
-		//IJ.log(""+dens[2]);
-		lastChiSquared=getChiSquared(dens);
-		double changeChiSquared = Double.MAX_VALUE;
-		IJ.showStatus("Size Distribution Estimation by Walker's Method");
-		while(changeChiSquared>0.01){
-			
-			IJ.showProgress((int)((1-changeChiSquared)*100),99);
-			for(int m = 0; m < dens.length; m++){
-				double sumpm = sum.evaluate(dens);
-				double help2 = 0;
-				
-				for(int k = 0; k < data.length; k++){
-					double help1 = 0;
-					double prob = probMSD(data[k][0],data[k][1], (m+1)*deltaR);
-					
-					for(int l=0; l < dens.length; l++){
-						double prob2=probMSD(data[k][0], data[k][1], (l+1)*deltaR);
-						help1 += prob2*dens[l]/sumpm;
-					}
-					help2 = help2 + prob/help1;
-				}
-				dens[m] = dens[m] * 1.0/data.length * help2;
+		initRows();
+		if(parallelism > 1){
+			pool = new ForkJoinPool(parallelism);
+		}
+		double[] dens;
+		try{
+			startTime = System.currentTimeMillis();
+			iteration = 0;
+			kernelPasses = 0;
+			trace = new ArrayList<double[]>();
+			if(useMultiResolution){
+				dens = estimateMultiResolution();
+			}else{
+				setFineRadiusGrid();
+				dens = new double[binNumber];
+				java.util.Arrays.fill(dens, 1.0/binNumber);
+				runEM(dens);
+			}
+		} finally{
+			kernel = null; //Free the kernel matrix
+			histogramKernel = null;
+			if(pool != null){
+				pool.shutdown();
+				pool = null;
 			}
-			double newChiSquared = getChiSquared(dens);
-			changeChiSquared = Math.abs(newChiSquared-lastChiSquared)/lastChiSquared;
-			lastChiSquared = newChiSquared;
 		}
 		IJ.showProgress(99,99);
+		IJ.showStatus("Walker's method: " + iteration + " iterations, " + kernelPasses + " kernel passes");
 		
 		//Normalize
 		double sumdens = sum.evaluate(dens);
@@ -228,4 +754,207 @@ public class WalkerMethodEstimator {
 		return densxy;
 		
 	}
+	
+	/**
+	 * Estimates the density and its pointwise percentile confidence bands by a nonparametric bootstrap. 
+	 * Each replicate resamples the tracks with replacement, which only changes the weights of the kernel rows. 
+	 * Therefore all replicates share the kernel matrix and the log(k) and logGamma(k) tables. The replicates 
+	 * are estimated in parallel on the fine radius grid. They start from the point estimate and stop if the 
+	 * relative change of the log-likelihood is below 1e-6.
+	 * @param replicates Number of bootstrap replicates (e.g. 200)
+	 * @param confidence Confidence level of the bands, between 0 and 1 (e.g. 0.95)
+	 * @return Histogram [i][j]: i = bin, j = 0: Diameter [nm], 1: Density, 2: Lower bound, 3: Upper bound
+	 */
+	public double[][] estimateWithBootstrap(int replicates, double confidence){
+		double[][] densxy = estimate();
+		
+		//Mix the point estimate with a small uniform density, so that no bin is excluded from the replicates
+		double[] start = new double[densxy.length];
+		for(int m = 0; m < start.length; m++){
+			start[m] = 0.99*densxy[m][1] + 0.01/start.length;
+		}
+		setFineRadiusGrid();
+		initKernel();
+		IJ.showStatus("Walker's method: " + replicates + " bootstrap replicates");
+		double[][] replicateDens = new double[replicates][];
+		ForkJoinPool bootstrapPool = new ForkJoinPool(parallelism);
+		try{
+			bootstrapPool.invoke(new BootstrapTask(start, replicateDens, 0, replicates));
+		} finally{
+			bootstrapPool.shutdown();
+			kernel = null; //Free the kernel matrix
+		}
+		
+		Percentile percentile = new Percentile();
+		double[] values = new double[replicates];
+		double[][] bands = new double[densxy.length][4];
+		for(int m = 0; m < densxy.length; m++){
+			for(int j = 0; j < replicates; j++){
+				values[j] = replicateDens[j][m];
+			}
+			percentile.setData(values);
+			bands[m][0] = densxy[m][0];
+			bands[m][1] = densxy[m][1];
+			bands[m][2] = percentile.evaluate(50*(1-confidence));
+			bands[m][3] = percentile.evaluate(100-50*(1-confidence));
+		}
+		return bands;
+	}
+	
+	/**
+	 * Sets the seed of the random number generator for the bootstrap. Replicate j uses the seed + j, 
+	 * thus the bands do not depend on the number of threads.
+	 * @param seed Seed of the first bootstrap replicate (default: 0)
+	 */
+	public void setBootstrapSeed(long seed){
+		bootstrapSeed = seed;
+	}
+	
+	/**
+	 * Estimates the density of a single bootstrap replicate on the fine grid. Runs sequentially.
+	 * @param start Initial density
+	 * @param seed Seed for resampling the tracks
+	 * @return Normalized density of the replicate
+	 */
+	private double[] estimateReplicate(double[] start, long seed){
+		Random random = new Random(seed);
+		double[] weights = new double[rowMSD.length];
+		for(int i = 0; i < data.length; i++){
+			weights[rowOfTrack[random.nextInt(data.length)]]++;
+		}
+		double[] dens = start.clone();
+		double lastLogLik = Double.NaN;
+		for(int it = 0; it < BOOTSTRAP_MAX_ITERATIONS; it++){
+			double sumpm = 0;
+			for(int m = 0; m < dens.length; m++){
+				sumpm += dens[m];
+			}
+			double[] help2 = getEMSums(dens, weights, sumpm, 0, rowMSD.length);
+			for(int m = 0; m < dens.length; m++){
+				dens[m] = dens[m] * 1.0/data.length * help2[m];
+			}
+			double logLik = help2[dens.length];
+			if(Math.abs(logLik-lastLogLik) < BOOTSTRAP_TOLERANCE*Math.abs(logLik)){
+				break;
+			}
+			lastLogLik = logLik;
+		}
+		double sumdens = 0;
+		for(int m = 0; m < dens.length; m++){
+			sumdens += dens[m];
+		}
+		for(int m = 0; m < dens.length; m++){
+			dens[m] = dens[m]/sumdens;
+		}
+		return dens;
+	}
+	
+	/**
+	 * Estimates the density on a coarse-to-fine sequence of radius grids.
+	 * @return The density on the fine grid
+	 */
+	private double[] estimateMultiResolution(){
+		int width = 1;
+		while(binNumber/(2*width) >= minCoarseBinNumber){
+			width = 2*width;
+		}
+		int cells = (binNumber+width-1)/width;
+		int[] start = new int[cells];
+		int[] end = new int[cells];
+		for(int m = 0; m < cells; m++){
+			start[m] = m*width;
+			end[m] = Math.min((m+1)*width, binNumber);
+		}
+		double[] dens = new double[cells];
+		java.util.Arrays.fill(dens, 1.0/cells);
+		
+		boolean refined = true;
+		while(refined){
+			setRadiusGrid(start, end);
+			boolean converged = runEM(dens);
+			if(!converged){
+				break;
+			}
+			
+			//Split all significant bins
+			double sumdens = 0;
+			for(int m = 0; m < dens.length; m++){
+				sumdens += dens[m];
+			}
+			ArrayList<int[]> newBins = new ArrayList<int[]>();
+			ArrayList<Double> newDens = new ArrayList<Double>();
+			refined = false;
+			for(int m = 0; m < dens.length; m++){
+				if(end[m]-start[m] > 1 && dens[m]/sumdens > refinementThreshold){
+					int mid = (start[m]+end[m])/2;
+					newBins.add(new int[]{start[m], mid});
+					newBins.add(new int[]{mid, end[m]});
+					double share = (mid-start[m])/(double)(end[m]-start[m]);
+					newDens.add(dens[m]*share);
+					newDens.add(dens[m]*(1-share));
+					refined = true;
+				}else{
+					newBins.add(new int[]{start[m], end[m]});
+					newDens.add(dens[m]);
+				}
+			}
+			if(refined){
+				start = new int[newBins.size()];
+				end = new int[newBins.size()];
+				dens = new double[newBins.size()];
+				for(int m = 0; m < dens.length; m++){
+					start[m] = newBins.get(m)[0];
+					end[m] = newBins.get(m)[1];
+					dens[m] = newDens.get(m);
+				}
+			}
+		}
+		
+		//Spread the probability of each bin uniformly over the fine bins
+		double[] fineDens = new double[binNumber];
+		for(int m = 0; m < dens.length; m++){
+			for(int i = start[m]; i < end[m]; i++){
+				fineDens[i] = dens[m]/(end[m]-start[m]);
+			}
+		}
+		return fineDens;
+	}
+	
+	/**
+	 * Runs the EM iterations on the current radius grid until the relative change of chi-squared 
+	 * is below 1% or the budget is exhausted.
+	 * @param dens Initial density on the current grid, will be updated
+	 * @return False if the budget was exhausted
+	 */
+	private boolean runEM(double[] dens){
+		initKernel();
+		lastChiSquared=getChiSquared(dens);
+		double changeChiSquared = Double.MAX_VALUE;
+		if(kernel != null){
+			IJ.showStatus("Size Distribution Estimation by Walker's Method (Kernel: " + IJ.d2s(getKernelMemory()/(1024.0*1024.0),1) + " MB)");
+		}else{
+			IJ.showStatus("Size Distribution Estimation by Walker's Method");
+		}
+		trace.add(new double[]{iteration, kernelPasses, lastChiSquared, Double.NaN, System.currentTimeMillis()-startTime});
+		while(changeChiSquared>0.01){
+			long elapsed = System.currentTimeMillis()-startTime;
+			if((maxIterations > 0 && iteration >= maxIterations) || (maxTime > 0 && elapsed >= maxTime)){
+				IJ.log("Walker's method: Budget exhausted after " + iteration + " iterations (" + elapsed + " ms). Relative change of chi-squared: " + IJ.d2s(changeChiSquared, 4));
+				return false;
+			}
+			IJ.showProgress((int)((1-changeChiSquared)*100),99);
+			double logLik;
+			if(useAcceleration){
+				logLik = updateDensityAccelerated(dens);
+			}else{
+				logLik = updateDensity(dens);
+			}
+			iteration++;
+			double newChiSquared = getChiSquared(dens);
+			changeChiSquared = Math.abs(newChiSquared-lastChiSquared)/lastChiSquared;
+			lastChiSquared = newChiSquared;
+			trace.add(new double[]{iteration, kernelPasses, newChiSquared, logLik, System.currentTimeMillis()-startTime});
+		}
+		return true;
+	}
 }
@@ -25,6 +25,7 @@
 package de.biomedical_imaging.ij.plot;
 
 
+import java.awt.Color;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -43,8 +44,13 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.DatasetRenderingOrder;
 import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.DeviationRenderer;
 import org.jfree.data.xy.IntervalXYDataset;
+import org.jfree.data.xy.YIntervalSeries;
+import org.jfree.data.xy.YIntervalSeriesCollection;
 
 import de.biomedical_imaging.ij.nanotrackj.NanoTrackJ_;
 import de.biomedical_imaging.ij.nanotrackj.RegressionEstimator;
@@ -101,6 +107,9 @@ public class HistogramPlotter extends JFrame{//extends ApplicationFrame{
 		txt.setFont(f);
 		
 		JFreeChart chart  = createChart(xydataset,isbarplot);
+		if(data.length > 0 && data[0].length >= 4){
+			addConfidenceBands(chart, data);
+		}
 		
 		ChartPanel chartPanel = new ChartPanel(chart);
 	
@@ -159,14 +168,14 @@ public class HistogramPlotter extends JFrame{//extends ApplicationFrame{
 	}
 	
 	public String[] getStettingsString(){
-		int basesize = 22;
+		int basesize = 28;
 		int arraysize = basesize;
 		NanoTrackJ_ nj = NanoTrackJ_.getInstance();
 		if(nj.doUseWalkerMethod()==true){
-			arraysize += 2;
+			arraysize += 8;
 		}
 		if(nj.getCenterMethodType()==NanoTrackJ_.CM_MAXIMA || nj.getCenterMethodType()==NanoTrackJ_.CM_MAXIMA_GAUSS){
-			arraysize += 4;
+			arraysize += 6;
 		}
 		if(nj.getDCEstimatorType()==NanoTrackJ_.DC_REG){
 			arraysize += 4;
@@ -196,15 +205,29 @@ public class HistogramPlotter extends JFrame{//extends ApplicationFrame{
 		allset[19] = ""+nj.doCorrectDrift();
 		allset[20] = "Walker's method";
 		allset[21] = "" + nj.doUseWalkerMethod();
+		allset[22] = "Linking";
+		allset[23] = "" + nj.getLinkerChoice();
+		allset[24] = "Max. gap";
+		allset[25] = "" + nj.getMaxGap();
+		allset[26] = "Drift window";
+		allset[27] = "" + nj.getDriftWindow();
 		if(nj.doUseWalkerMethod()==true){
 			allset[basesize++] = "Walker's Method Min Size";
 			allset[basesize++] = "" + nj.getWalkerMaxSize();
+			allset[basesize++] = "Bootstrap replicates";
+			allset[basesize++] = "" + nj.getWalkerBootstrapReplicates();
+			allset[basesize++] = "Accelerated EM";
+			allset[basesize++] = "" + nj.doUseWalkerAcceleration();
+			allset[basesize++] = "Multi-resolution grid";
+			allset[basesize++] = "" + nj.doUseWalkerMultiResolution();
 		}
 		if(nj.getCenterMethodType()==NanoTrackJ_.CM_MAXIMA || nj.getCenterMethodType()==NanoTrackJ_.CM_MAXIMA_GAUSS){
 			allset[basesize++] = "Mean size (maxima dialog)";
 			allset[basesize++] = ""+nj.getMaximumDialogMeanFilterSize();
 			allset[basesize++] = "Tolerance (maxima dialog)";
 			allset[basesize++] = ""+nj.getMaximumDialogTolerance();
+			allset[basesize++] = "Fast maxima (maxima dialog)";
+			allset[basesize++] = ""+nj.doUseFastMaxima();
 		}
 		if(nj.getDCEstimatorType()==NanoTrackJ_.DC_REG){
 			RegressionEstimator re = (RegressionEstimator)Track.diffCoeffEst;
@@ -234,6 +257,26 @@ public class HistogramPlotter extends JFrame{//extends ApplicationFrame{
 		
 	}
 	
+    /**
+     * Draws pointwise confidence bands as a shaded area over the histogram.
+     * @param data [i][0] = x, [i][1] = Estimate, [i][2] = Lower bound, [i][3] = Upper bound
+     */
+    private void addConfidenceBands(JFreeChart chart, double[][] data){
+    	YIntervalSeries band = new YIntervalSeries("Confidence band");
+    	for(int i = 0; i < data.length; i++){
+    		band.add(data[i][0], data[i][1], data[i][2], data[i][3]);
+    	}
+    	YIntervalSeriesCollection bands = new YIntervalSeriesCollection();
+    	bands.addSeries(band);
+    	DeviationRenderer renderer = new DeviationRenderer(false, false);
+    	renderer.setSeriesFillPaint(0, Color.RED);
+    	renderer.setAlpha(0.3f);
+    	XYPlot plot = chart.getXYPlot();
+    	plot.setDataset(1, bands);
+    	plot.setRenderer(1, renderer);
+    	plot.setDatasetRenderingOrder(DatasetRenderingOrder.FORWARD);
+    }
+    
     private JFreeChart createChart(IntervalXYDataset intervalxydataset,boolean barplot)
     { 
     	if(barplot){
@@ -20,6 +20,8 @@ import org.jfree.chart.renderer.xy.StandardXYItemRenderer;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
 
 import de.biomedical_imaging.ij.nanotrackj.AllTracks;
+import de.biomedical_imaging.ij.nanotrackj.EnsembleMSD;
+import de.biomedical_imaging.ij.nanotrackj.MSDCurve;
 import de.biomedical_imaging.ij.nanotrackj.NanoTrackJ_;
 import de.biomedical_imaging.ij.nanotrackj.Track;
 
@@ -37,6 +39,21 @@ public class MSDPlotter extends JFrame {
         chartPanel.setPreferredSize(new java.awt.Dimension(500, 270));
         setContentPane(chartPanel);
 	}
+	
+	/**
+	 * Plots ensemble MSD curves, e.g. one per size class.
+	 * @param title Title of the frame
+	 * @param curves Ensemble curves
+	 * @param labels [i] = Label of curve i
+	 * @param maxlag Max. timelag
+	 */
+	public MSDPlotter(String title, EnsembleMSD[] curves, String[] labels, int maxlag){
+		super(title);
+		this.maxlag = maxlag;
+		JPanel chartPanel = createEnsemblePanel(curves, labels);
+        chartPanel.setPreferredSize(new java.awt.Dimension(500, 270));
+        setContentPane(chartPanel);
+	}
 
     
     /**
@@ -52,10 +69,11 @@ public class MSDPlotter extends JFrame {
     	double hz = 1.0/NanoTrackJ_.getInstance().getFramerate();
     	ResultsTable trackdata = new ResultsTable();
     	
+    	MSDCurve curve = track.getMSDCurve(true, maxlag);
     	for(int i = 0; i < maxlag; i++){
     		
     		double lag = (i+1)*hz;
-    		double msd = track.getMeanSquareDisplacement(true, i+1);
+    		double msd = curve.getMSD(i+1);
     		reg.addData(lag, msd);
     		series1.add(lag,msd);
     		
@@ -63,8 +81,7 @@ public class MSDPlotter extends JFrame {
     		trackdata.addValue("Timelag", lag);
     		trackdata.addValue("MSD", msd);
     		
-    		double[] sdAndN = track.getMeanSquareDisplacementSD(true, i+1);
-    		trackdata.addValue("N",sdAndN[1]);
+    		trackdata.addValue("N",curve.getN(i+1));
     		//trackdata.addValue("Standard Deviation", sdAndN[0]);
     		//trackdata.addValue("Standard Error", sdAndN[0]/);
     	}
@@ -100,4 +117,43 @@ public class MSDPlotter extends JFrame {
         chartPanel.setRangeZoomable(true);
         return chartPanel;
     }
+    
+    /**
+     * Creates a panel with one series per ensemble curve and shows the curves in a results table.
+     * @return A panel.
+     */
+    public JPanel createEnsemblePanel(EnsembleMSD[] curves, String[] labels) {
+    	XYSeriesCollection data = new XYSeriesCollection();
+    	double hz = 1.0/NanoTrackJ_.getInstance().getFramerate();
+    	ResultsTable trackdata = new ResultsTable();
+    	for(int i = 0; i < maxlag; i++){
+    		trackdata.incrementCounter();
+    		trackdata.addValue("Timelag", (i+1)*hz);
+    	}
+    	for(int k = 0; k < curves.length; k++){
+    		if(curves[k].getNumberOfTracks()==0){
+    			continue;
+    		}
+    		XYSeries series = new XYSeries(labels[k] + " (" + curves[k].getNumberOfTracks() + " tracks)");
+    		for(int i = 0; i < maxlag; i++){
+    			double msd = curves[k].getMSD(i+1);
+    			if(curves[k].getN(i+1) > 0){
+    				series.add((i+1)*hz, msd);
+    			}
+    			trackdata.setValue("MSD " + labels[k], i, msd);
+    			trackdata.setValue("N " + labels[k], i, curves[k].getN(i+1));
+    		}
+    		data.addSeries(series);
+    	}
+    	trackdata.show("Ensemble MSD");
+    	
+        JFreeChart chart = ChartFactory.createScatterPlot("Ensemble MSD upto the dimensionless timelag " + maxlag, "Time lags [s]", "MSD [Pixel^2/s]", data,
+				PlotOrientation.VERTICAL, true, false, false);
+		ChartPanel chartPanel = new ChartPanel(chart);
+        chartPanel.setPopupMenu(null);
+        
+        chartPanel.setDomainZoomable(true);
+        chartPanel.setRangeZoomable(true);
+        return chartPanel;
+    }
 }
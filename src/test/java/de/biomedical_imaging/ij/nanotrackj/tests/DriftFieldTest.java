@@ -0,0 +1,78 @@
+package de.biomedical_imaging.ij.nanotrackj.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.nanotrackj.AllTracks;
+import de.biomedical_imaging.ij.nanotrackj.DriftField;
+import de.biomedical_imaging.ij.nanotrackj.Track;
+
+public class DriftFieldTest {
+
+	@Test
+	public void testWindowMeanEqualsBruteForce() {
+		int frames = 300;
+		int window = 7;
+		DriftField field = new DriftField(window);
+		double[] sumX = new double[frames+1];
+		double[] n = new double[frames+1];
+		Random r = new Random(1);
+		//Steps are added in random frame order, which also grows the trees several times
+		for(int i = 0; i < 2000; i++){
+			int endFrame = 2 + r.nextInt(frames-1);
+			int covered = 1 + r.nextInt(2);
+			double dx = r.nextGaussian() + (endFrame < 150 ? 1 : -2)*covered;
+			field.update(endFrame, dx, 0, covered, 1);
+			sumX[endFrame] += dx;
+			n[endFrame] += covered;
+		}
+		double cumulative = 0;
+		for(int f = 1; f <= frames; f++){
+			double s = 0;
+			double m = 0;
+			for(int k = Math.max(1, f-window); k <= Math.min(frames, f+window); k++){
+				s += sumX[k];
+				m += n[k];
+			}
+			cumulative += m > 0 ? s/m : 0;
+			assertEquals(s/m, field.getDrift(f)[0], 1e-9);
+			assertEquals(cumulative, field.getCumulativeDriftX(f), 1e-7);
+		}
+		//The drift changes at frame 150
+		assertEquals(1, field.getDrift(50)[0], 0.2);
+		assertEquals(-2, field.getDrift(250)[0], 0.2);
+	}
+	
+	@Test
+	public void testTimeResolvedDriftCorrection() {
+		AllTracks allTracks = AllTracks.getInstance();
+		allTracks.reset();
+		allTracks.setDriftWindow(1);
+		//Two particles without diffusion. The drift is 1 pixel per frame until frame 20, then -1 pixel per frame.
+		Track a = new Track(1);
+		Track b = new Track(1);
+		allTracks.add(a);
+		allTracks.add(b);
+		float pos = 0;
+		for(int f = 1; f <= 40; f++){
+			pos += f <= 20 ? (f > 1 ? 1 : 0) : -1;
+			a.add(pos, 10, 0, Float.NaN, f);
+			b.add(pos+30, 40, 0, Float.NaN, f);
+		}
+		//The global linear drift is almost zero, the time-resolved drift removes the motion except around the change
+		assertTrue(Math.abs(allTracks.getDrift()[0]) < 0.05);
+		assertEquals(1, a.getMeanSquareDisplacement(false, 1), 1e-9);
+		assertEquals(0, a.getMeanSquareDisplacement(true, 1), 0.05);
+		Track corrected = a.getDriftCorrectedTrack();
+		assertEquals(a.getTrackID(), corrected.getTrackID());
+		assertEquals(a.size(), corrected.size());
+		
+		allTracks.setDriftWindow(0);
+		assertTrue(a.getMeanSquareDisplacement(true, 1) > 0.9);
+		allTracks.reset();
+	}
+
+}
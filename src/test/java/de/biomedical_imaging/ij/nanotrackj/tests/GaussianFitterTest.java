@@ -0,0 +1,82 @@
+package de.biomedical_imaging.ij.nanotrackj.tests;
+
+import static org.junit.Assert.*;
+
+import ij.process.FloatProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.nanotrackj.GaussianFitter;
+
+public class GaussianFitterTest {
+
+	/**
+	 * Renders isolated gaussian spots on a grid (spacing 20 pixel) with random subpixel offsets and noise.
+	 * @param centers Is filled with the true centers
+	 */
+	private FloatProcessor simulateSpots(int size, double sigma, double[][] centers, long seed){
+		Random r = new Random(seed);
+		int perRow = size/20;
+		for(int i = 0; i < centers.length; i++){
+			centers[i][0] = 10 + 20*(i%perRow) + r.nextDouble() - 0.5;
+			centers[i][1] = 10 + 20*(i/perRow) + r.nextDouble() - 0.5;
+		}
+		float[] pixels = new float[size*size];
+		for(int y = 0; y < size; y++){
+			for(int x = 0; x < size; x++){
+				double v = 10;
+				for(int i = 0; i < centers.length; i++){
+					double dx = x - centers[i][0];
+					double dy = y - centers[i][1];
+					v += 200*Math.exp(-(dx*dx+dy*dy)/(2*sigma*sigma));
+				}
+				pixels[y*size+x] = (float)(v + Math.sqrt(v)*r.nextGaussian());
+			}
+		}
+		return new FloatProcessor(size, size, pixels);
+	}
+	
+	@Test
+	public void testFitFindsSubpixelCenter() {
+		double[][] centers = new double[100][2];
+		FloatProcessor ip = simulateSpots(200, 1.5, centers, 1);
+		int[] x = new int[centers.length];
+		int[] y = new int[centers.length];
+		for(int i = 0; i < centers.length; i++){
+			x[i] = (int)Math.round(centers[i][0]);
+			y[i] = (int)Math.round(centers[i][1]);
+		}
+		GaussianFitter fitter = new GaussianFitter(4);
+		double[][] fits = fitter.fit(ip, x, y, centers.length);
+		double squaredError = 0;
+		for(int i = 0; i < centers.length; i++){
+			assertEquals(1, fits[i][GaussianFitter.CONVERGED], 0);
+			assertEquals(1.5, fits[i][GaussianFitter.SIGMA], 0.2);
+			assertEquals(200, fits[i][GaussianFitter.AMPLITUDE], 30);
+			squaredError += Math.pow(fits[i][GaussianFitter.X]-centers[i][0], 2) + Math.pow(fits[i][GaussianFitter.Y]-centers[i][1], 2);
+		}
+		assertTrue(Math.sqrt(squaredError/centers.length) < 0.1);
+		
+		//Every spot is fitted independently, thus the parallel fit is identical
+		fitter.setParallelism(4);
+		double[][] parallelFits = fitter.fit(ip, x, y, centers.length);
+		fitter.shutdown();
+		for(int i = 0; i < centers.length; i++){
+			assertArrayEquals(fits[i], parallelFits[i], 0);
+		}
+	}
+	
+	@Test
+	public void testSpotsAtTheBorder() {
+		double[][] centers = new double[4][2];
+		FloatProcessor ip = simulateSpots(40, 1.5, centers, 2);
+		double[][] fits = new GaussianFitter(4).fit(ip, new int[]{0, 39, 0, 39}, new int[]{0, 0, 39, 39}, 4);
+		for(int i = 0; i < fits.length; i++){
+			assertTrue(fits[i][GaussianFitter.X] >= -1 && fits[i][GaussianFitter.X] <= 40);
+			assertTrue(fits[i][GaussianFitter.Y] >= -1 && fits[i][GaussianFitter.Y] <= 40);
+		}
+	}
+
+}
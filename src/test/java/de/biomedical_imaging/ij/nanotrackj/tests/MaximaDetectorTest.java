@@ -0,0 +1,115 @@
+package de.biomedical_imaging.ij.nanotrackj.tests;
+
+import static org.junit.Assert.*;
+
+import ij.plugin.filter.MaximumFinder;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Polygon;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.nanotrackj.MaximaDetector;
+import de.biomedical_imaging.ij.nanotrackj.MeanFilter;
+
+public class MaximaDetectorTest {
+	
+	/**
+	 * Frame like the output of scripts/simulation/PartSimDiameter.ijm: white 5x5 px ovals on black.
+	 */
+	private ByteProcessor simulateFrame(int width, int height, int particles, Random r){
+		ByteProcessor bp = new ByteProcessor(width, height);
+		bp.setColor(255);
+		for(int i = 0; i < particles; i++){
+			bp.fillOval((int)(width*r.nextDouble()), (int)(height*r.nextDouble()), 5, 5);
+		}
+		return bp;
+	}
+	
+	/**
+	 * @return Number of points of a which have a point of b within the distance
+	 */
+	private int countMatches(Polygon a, Polygon b, double distance){
+		int matches = 0;
+		for(int i = 0; i < a.npoints; i++){
+			for(int j = 0; j < b.npoints; j++){
+				double dx = a.xpoints[i] - b.xpoints[j];
+				double dy = a.ypoints[i] - b.ypoints[j];
+				if(dx*dx + dy*dy <= distance*distance){
+					matches++;
+					break;
+				}
+			}
+		}
+		return matches;
+	}
+
+	@Test
+	public void testAgreesWithMaximumFinderOnSimulatedFrames() {
+		Random r = new Random(1);
+		MaximaDetector detector = new MaximaDetector(1, 6);
+		MeanFilter meanFilter = new MeanFilter();
+		for(int meanSize = 0; meanSize <= 3; meanSize += 3){
+			int numberOfReference = 0;
+			int numberOfDetected = 0;
+			int found = 0;
+			int confirmed = 0;
+			for(int frame = 0; frame < 10; frame++){
+				ImageProcessor ip = simulateFrame(800, 600, 100, r);
+				if(meanSize > 0){
+					ip = meanFilter.filter(ip, meanSize);
+				}
+				Polygon reference = new MaximumFinder().getMaxima(ip, 15, true);
+				Polygon detected = detector.getMaxima(ip, 15, true);
+				numberOfReference += reference.npoints;
+				numberOfDetected += detected.npoints;
+				found += countMatches(reference, detected, 2);
+				confirmed += countMatches(detected, reference, 2);
+			}
+			//Documented agreement: 99 % of the maxima of the MaximumFinder are found and 99 % of the detected maxima 
+			//are confirmed by it (100 spots per frame, measured: > 99.3 %).
+			assertTrue("Recall " + found + "/" + numberOfReference, found >= 0.99*numberOfReference);
+			assertTrue("Precision " + confirmed + "/" + numberOfDetected, confirmed >= 0.99*numberOfDetected);
+		}
+	}
+	
+	@Test
+	public void testPlateauGivesSingleCenteredMaximum() {
+		ByteProcessor bp = new ByteProcessor(40, 30);
+		bp.setColor(255);
+		bp.fillOval(10, 12, 5, 5);
+		Polygon maxima = new MaximaDetector(2, 6).getMaxima(bp, 15, true);
+		assertEquals(1, maxima.npoints);
+		assertEquals(12, maxima.xpoints[0]);
+		assertEquals(14, maxima.ypoints[0]);
+	}
+	
+	@Test
+	public void testExcludeOnEdges() {
+		ByteProcessor bp = new ByteProcessor(40, 30);
+		bp.setColor(255);
+		bp.fillOval(-2, 12, 5, 5);
+		bp.fillOval(20, 12, 5, 5);
+		MaximaDetector detector = new MaximaDetector(1, 6);
+		assertEquals(1, detector.getMaxima(bp, 15, true).npoints);
+		assertEquals(2, detector.getMaxima(bp, 15, false).npoints);
+	}
+	
+	@Test
+	public void testRGBEqualsGray() {
+		ByteProcessor bp = simulateFrame(200, 150, 20, new Random(2));
+		ColorProcessor cp = (ColorProcessor)bp.convertToRGB();
+		MaximaDetector detector = new MaximaDetector(1, 6);
+		Polygon gray = detector.getMaxima(bp, 15, true);
+		Polygon rgb = detector.getMaxima(cp, 15, true);
+		assertEquals(gray.npoints, rgb.npoints);
+		for(int i = 0; i < gray.npoints; i++){
+			assertEquals(gray.xpoints[i], rgb.xpoints[i]);
+			assertEquals(gray.ypoints[i], rgb.ypoints[i]);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package de.biomedical_imaging.ij.nanotrackj.tests;
+
+import static org.junit.Assert.*;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.nanotrackj.MeanFilter;
+
+public class MeanFilterTest {
+
+	/**
+	 * Mean of the square kernel, the border pixels are repeated.
+	 */
+	private int bruteForceMean(ImageProcessor ip, int x, int y, int radius, int shift){
+		int sum = 0;
+		for(int dy = -radius; dy <= radius; dy++){
+			for(int dx = -radius; dx <= radius; dx++){
+				int xi = Math.max(0, Math.min(x+dx, ip.getWidth()-1));
+				int yi = Math.max(0, Math.min(y+dy, ip.getHeight()-1));
+				sum += (ip.get(xi, yi)>>shift)&0xff;
+			}
+		}
+		int n = (2*radius+1)*(2*radius+1);
+		return (int)Math.floor((double)sum/n + 0.5);
+	}
+	
+	@Test
+	public void testEqualsBruteForce() {
+		Random r = new Random(1);
+		ByteProcessor bp = new ByteProcessor(37, 23);
+		ColorProcessor cp = new ColorProcessor(37, 23);
+		for(int i = 0; i < 37*23; i++){
+			bp.set(i, r.nextInt(256));
+			cp.set(i, r.nextInt(1<<24));
+		}
+		MeanFilter filter = new MeanFilter();
+		for(int radius : new int[]{1, 3, 6, 30}){
+			ImageProcessor byteMean = filter.filter(bp, radius);
+			for(int y = 0; y < 23; y++){
+				for(int x = 0; x < 37; x++){
+					assertEquals(bruteForceMean(bp, x, y, radius, 0), byteMean.get(x, y));
+				}
+			}
+			//The buffers are reused
+			ImageProcessor rgbMean = filter.filter(cp, radius);
+			for(int y = 0; y < 23; y++){
+				for(int x = 0; x < 37; x++){
+					for(int shift = 0; shift <= 16; shift += 8){
+						assertEquals(bruteForceMean(cp, x, y, radius, shift), (rgbMean.get(x, y)>>shift)&0xff);
+					}
+				}
+			}
+		}
+	}
+
+}
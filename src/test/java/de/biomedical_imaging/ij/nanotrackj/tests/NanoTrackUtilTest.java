@@ -2,6 +2,8 @@ package de.biomedical_imaging.ij.nanotrackj.tests;
 
 import static org.junit.Assert.*;
 
+import ij.process.ByteProcessor;
+
 import org.junit.Test;
 
 import de.biomedical_imaging.ij.nanotrackj.NanoTrackUtil;
@@ -81,5 +83,39 @@ public class NanoTrackUtilTest {
 		double hue = NanoTrackUtil.getHUE(R, G, B);
 		assertTrue(hue>0);
 	}
-
+	
+	private ByteProcessor spot(int width, int height, double xc, double yc){
+		ByteProcessor ip = new ByteProcessor(width, height);
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				ip.set(x, y, (int)(200*Math.exp(-((x-xc)*(x-xc)+(y-yc)*(y-yc))/8)));
+			}
+		}
+		return ip;
+	}
+	
+	@Test
+	public void testFittedParameterOfSymmetricSpotIsCenter() {
+		//The disk is the mask of an EllipseRoi, which is shifted by half a pixel
+		float[] p = NanoTrackUtil.getFittedParameter(spot(64, 64, 30, 20), 30, 20);
+		assertEquals(30, p[0], 0.1);
+		assertEquals(20, p[1], 0.1);
+		
+		float[] shifted = NanoTrackUtil.getFittedParameter(spot(64, 64, 30.5, 20), 30, 20);
+		assertTrue(shifted[0] > p[0]);
+		assertEquals(p[1], shifted[1], 0.05);
+	}
+	
+	@Test
+	public void testFittedParameterAtBorder() {
+		//The search for the radius must not leave the image
+		for(int y = 0; y < 30; y++){
+			float[] p = NanoTrackUtil.getFittedParameter(spot(40, 30, 0, y), 0, y);
+			assertTrue(p[0] >= 0 && p[0] < 2);
+			assertEquals(y, p[1], 2);
+			p = NanoTrackUtil.getFittedParameter(spot(40, 30, 39, y), 39, y);
+			assertTrue(p[0] > 37 && p[0] < 40);
+		}
+	}
+	
 }
@@ -0,0 +1,193 @@
+package de.biomedical_imaging.ij.nanotrackj.tests;
+
+import static org.junit.Assert.*;
+
+import ij.blob.Blob;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.nanotrackj.AllTracks;
+import de.biomedical_imaging.ij.nanotrackj.CenterBlob;
+import de.biomedical_imaging.ij.nanotrackj.Track;
+import de.biomedical_imaging.ij.nanotrackj.TrackSynthesizer;
+
+public class TrackSynthesizerTest {
+
+	private ArrayList<Blob> frame(float[][] positions){
+		ArrayList<Blob> blobs = new ArrayList<Blob>();
+		for(int i = 0; i < positions.length; i++){
+			blobs.add(new CenterBlob(positions[i][0], positions[i][1], 0));
+		}
+		return blobs;
+	}
+	
+	@Test
+	public void testLinksAcrossGridCells() {
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5);
+		//Particles which cross cell borders (also at negative coordinates) between the frames
+		synthesizer.updateTracks(frame(new float[][]{{4.9f, 4.9f}, {-0.1f, 20}, {50, 50}}), 1);
+		synthesizer.updateTracks(frame(new float[][]{{5.1f, 9.8f}, {0.1f, 15.1f}, {50, 55.1f}}), 2);
+		AllTracks allTracks = AllTracks.getInstance();
+		//Two tracks are continued, the third particle moved too far and starts a new track
+		assertEquals(3, allTracks.size());
+		assertEquals(2, allTracks.get(0).size());
+		assertEquals(2, allTracks.get(1).size());
+		assertEquals(1, allTracks.get(2).size());
+		assertEquals(1, allTracks.getFinishedTracks().size());
+	}
+	
+	@Test
+	public void testLAPResolvesAmbiguousCandidates() {
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5, TrackSynthesizer.LINKER_LAP);
+		synthesizer.updateTracks(frame(new float[][]{{10, 10}, {16, 10}, {40, 40}}), 1);
+		//The first blob is a candidate of both tracks, the second blob only of the second track
+		synthesizer.updateTracks(frame(new float[][]{{12, 10}, {17, 10}, {41, 40}}), 2);
+		AllTracks allTracks = AllTracks.getInstance();
+		assertEquals(3, allTracks.size());
+		assertEquals(0, allTracks.getFinishedTracks().size());
+		assertEquals(12, allTracks.get(0).get(1).getX(), 0);
+		assertEquals(17, allTracks.get(1).get(1).getX(), 0);
+		assertEquals(41, allTracks.get(2).get(1).getX(), 0);
+	}
+	
+	@Test
+	public void testLAPMinimizesSquaredDisplacements() {
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5, TrackSynthesizer.LINKER_LAP);
+		synthesizer.updateTracks(frame(new float[][]{{10, 10}, {12, 10}}), 1);
+		//Linking the blob at 12.5 to its nearest track (12) leaves 14.5 for the track at 10: 0.25 + 20.25 
+		//The optimum links 10 -> 12.5 and 12 -> 14.5: 6.25 + 6.25
+		synthesizer.updateTracks(frame(new float[][]{{12.5f, 10}, {14.5f, 10}}), 2);
+		AllTracks allTracks = AllTracks.getInstance();
+		assertEquals(2, allTracks.size());
+		assertEquals(12.5, allTracks.get(0).get(1).getX(), 1e-5);
+		assertEquals(14.5, allTracks.get(1).get(1).getX(), 1e-5);
+	}
+	
+	@Test
+	public void testGapClosingBridgesMissedDetection() {
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5);
+		synthesizer.setMaxGap(1);
+		synthesizer.updateTracks(frame(new float[][]{{10, 10}, {40, 40}}), 1);
+		synthesizer.updateTracks(frame(new float[][]{{11, 10}, {42, 40}}), 2);
+		//The first particle is missed in frame 3
+		synthesizer.updateTracks(frame(new float[][]{{44, 40}}), 3);
+		synthesizer.updateTracks(frame(new float[][]{{16, 10}, {46, 40}}), 4);
+		AllTracks allTracks = AllTracks.getInstance();
+		assertEquals(2, allTracks.size());
+		assertEquals(0, allTracks.getFinishedTracks().size());
+		Track bridged = allTracks.get(0);
+		assertEquals(3, bridged.size());
+		assertTrue(bridged.hasGaps());
+		//Timelag 1 only uses the steps from frame 1 to frame 2, the step from 2 to 4 has timelag 2
+		assertEquals(1, bridged.getMeanSquareDisplacement(0, 0, 1), 1e-6);
+		assertEquals(25, bridged.getMeanSquareDisplacement(0, 0, 2), 1e-6);
+		
+		//Without detection in frame 5 and 6, the gap is too long
+		synthesizer.updateTracks(frame(new float[][]{{48, 40}}), 5);
+		synthesizer.updateTracks(frame(new float[][]{{50, 40}}), 6);
+		assertEquals(1, allTracks.size());
+		assertEquals(1, allTracks.getFinishedTracks().size());
+	}
+
+	@Test
+	public void testDriftIsUpdatedWithEachStep() {
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5);
+		//Both particles drift 1 pixel per frame in x, the second one moves also in y and appears in frame 4
+		for(int f = 1; f <= 8; f++){
+			if(f < 4){
+				synthesizer.updateTracks(frame(new float[][]{{10+f, 10}}), f);
+			}else{
+				synthesizer.updateTracks(frame(new float[][]{{10+f, 10}, {40+f, 40+0.5f*f}}), f);
+			}
+		}
+		AllTracks allTracks = AllTracks.getInstance();
+		//Only the first track has more than 5 detections. The drift is the negative mean displacement per frame.
+		assertEquals(-1, allTracks.getDrift()[0], 1e-9);
+		assertEquals(0, allTracks.getDrift()[1], 1e-9);
+		//The sixth detection adds the second track
+		synthesizer.updateTracks(frame(new float[][]{{19, 10}, {49, 44.5f}}), 9);
+		assertEquals(-1, allTracks.getDrift()[0], 1e-9);
+		assertEquals(-0.5*5/(8+5), allTracks.getDrift()[1], 1e-9);
+		synthesizer.archiveOpenTracks();
+		assertEquals(-0.5*5/(8+5), allTracks.getDrift()[1], 1e-9);
+	}
+	
+	@Test
+	public void testFinishesManyTracksAtOnce() {
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5);
+		float[][] positions = new float[1000][];
+		for(int i = 0; i < positions.length; i++){
+			positions[i] = new float[]{20*(i%50), 20*(i/50)};
+		}
+		synthesizer.updateTracks(frame(positions), 1);
+		AllTracks allTracks = AllTracks.getInstance();
+		ArrayList<Track> every3rd = new ArrayList<Track>();
+		float[][] continued = new float[334][];
+		for(int i = 0; i < positions.length; i += 3){
+			every3rd.add(allTracks.get(i));
+			continued[i/3] = positions[i];
+		}
+		synthesizer.updateTracks(frame(continued), 2);
+		//All other tracks are finished in one frame, only the continued tracks stay open
+		assertEquals(334, allTracks.size());
+		assertEquals(666, allTracks.getFinishedTracks().size());
+		assertEquals(new HashSet<Track>(every3rd), new HashSet<Track>(allTracks));
+		for (Track t : allTracks.getFinishedTracks()) {
+			assertSame(t, allTracks.getFinishedTrackByID(t.getTrackID()));
+		}
+		assertNull(allTracks.getFinishedTrackByID(allTracks.get(0).getTrackID()));
+	}
+	
+	@Test
+	public void testFinishTrackKeepsOpenTracksConsistent() {
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5);
+		synthesizer.updateTracks(frame(new float[][]{{10, 10}, {30, 10}, {50, 10}, {70, 10}}), 1);
+		AllTracks allTracks = AllTracks.getInstance();
+		Track first = allTracks.get(0);
+		Track last = allTracks.get(3);
+		allTracks.finishTrack(first);
+		//The last open track takes the place of the finished track
+		assertEquals(3, allTracks.size());
+		assertSame(last, allTracks.get(0));
+		assertSame(first, allTracks.getFinishedTrackByID(first.getTrackID()));
+		//Finishing a track twice has no effect
+		allTracks.finishTrack(first);
+		assertEquals(3, allTracks.size());
+		assertEquals(1, allTracks.getFinishedTracks().size());
+		//The moved track is still linked and finished
+		synthesizer.updateTracks(frame(new float[][]{{71, 10}}), 2);
+		assertEquals(1, allTracks.size());
+		assertSame(last, allTracks.get(0));
+		assertEquals(2, last.size());
+		allTracks.finishTrack(last);
+		assertEquals(0, allTracks.size());
+		assertEquals(4, allTracks.getFinishedTracks().size());
+	}
+	
+	@Test
+	public void testLAPLinksLargeDenseComponent() {
+		//4000 particles with a spacing of 3 pixels and a search radius of 5 pixels form a single connected 
+		//component of the candidate graph with about 9 candidates per track
+		TrackSynthesizer synthesizer = new TrackSynthesizer(5, TrackSynthesizer.LINKER_LAP);
+		Random r = new Random(1);
+		float[][] positions = new float[4000][];
+		float[][] moved = new float[positions.length][];
+		for(int i = 0; i < positions.length; i++){
+			positions[i] = new float[]{3*(i%64) + 0.5f*r.nextFloat(), 3*(i/64) + 0.5f*r.nextFloat()};
+			moved[i] = new float[]{positions[i][0] + 0.5f*r.nextFloat(), positions[i][1] + 0.5f*r.nextFloat()};
+		}
+		synthesizer.updateTracks(frame(positions), 1);
+		synthesizer.updateTracks(frame(moved), 2);
+		AllTracks allTracks = AllTracks.getInstance();
+		assertEquals(positions.length, allTracks.size());
+		for(int i = 0; i < positions.length; i++){
+			assertEquals(moved[i][0], allTracks.get(i).get(1).getX(), 1e-5);
+			assertEquals(moved[i][1], allTracks.get(i).get(1).getY(), 1e-5);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package de.biomedical_imaging.ij.nanotrackj.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.nanotrackj.AllTracks;
+import de.biomedical_imaging.ij.nanotrackj.CovarianceEstimator;
+import de.biomedical_imaging.ij.nanotrackj.EnsembleMSD;
+import de.biomedical_imaging.ij.nanotrackj.KalmanCovarianceEstimator;
+import de.biomedical_imaging.ij.nanotrackj.MSDCurve;
+import de.biomedical_imaging.ij.nanotrackj.Track;
+import de.biomedical_imaging.ij.nanotrackj.TrackSummary;
+
+public class TrackTest {
+
+	private ArrayList<Track> simulateTracks(int numberOfTracks, int length, long seed){
+		Random r = new Random(seed);
+		ArrayList<Track> tracks = new ArrayList<Track>();
+		for(int i = 0; i < numberOfTracks; i++){
+			Track t = new Track(1);
+			double sigma = 0.5 + r.nextDouble();
+			float x = 100;
+			float y = 100;
+			for(int f = 1; f <= length; f++){
+				x += sigma*r.nextGaussian();
+				y += sigma*r.nextGaussian();
+				t.add(x, y, 0, Float.NaN, f);
+			}
+			tracks.add(t);
+		}
+		return tracks;
+	}
+	
+	@Test
+	public void testParallelSummariesEqualSequential() {
+		Track.setDiffusionCoefficientEstimator(new CovarianceEstimator());
+		ArrayList<Track> tracks = simulateTracks(200, 50, 1);
+		TrackSummary[] parallel = Track.summarize(tracks, false, false, 10, 4);
+		ArrayList<Track> copies = simulateTracks(200, 50, 1);
+		TrackSummary[] sequential = Track.summarize(copies, false, false, 10, 1);
+		for(int i = 0; i < tracks.size(); i++){
+			assertSame(parallel[i], tracks.get(i).getSummary());
+			assertEquals(tracks.get(i).getTrackID(), parallel[i].getTrackID());
+			assertEquals(sequential[i].getDiffusionCoefficient(), parallel[i].getDiffusionCoefficient(), 0);
+			assertEquals(sequential[i].getMeanSquareDisplacement(), parallel[i].getMeanSquareDisplacement(), 0);
+			assertTrue(parallel[i].getDiffusionCoefficient() > 0);
+			assertEquals(tracks.get(i).getMeanSquareDisplacement(false, 1), parallel[i].getMeanSquareDisplacement(), 0);
+		}
+		
+		//Too short for the min. track length
+		TrackSummary shortTrack = Track.summarize(simulateTracks(1, 5, 2), false, false, 10, 1)[0];
+		assertFalse(shortTrack.isValid());
+		assertEquals(5, shortTrack.getLength());
+	}
+	
+	@Test
+	public void testMSDCurveEqualsMeanSquareDisplacement() {
+		//Long enough that the long timelags are computed by FFT, with gaps
+		Random r = new Random(3);
+		Track track = new Track(1);
+		float x = 100;
+		float y = 100;
+		for(int f = 1; f <= 6000; f++){
+			x += r.nextGaussian();
+			y += r.nextGaussian();
+			if(r.nextDouble() > 0.05){
+				track.add(x, y, 0, Float.NaN, f);
+			}
+		}
+		int maxLag = 4000;
+		MSDCurve curve = track.getMSDCurve(0.01, -0.02, maxLag);
+		for(int tau = 1; tau <= maxLag; tau += 11){
+			double msd = track.getMeanSquareDisplacement(0.01, -0.02, tau);
+			double[] sdAndN = track.getMeanSquareDisplacementSD(0.01, -0.02, tau);
+			assertEquals(sdAndN[1], curve.getN(tau), 0);
+			assertEquals(msd, curve.getMSD(tau), 1e-8*msd);
+			assertEquals(sdAndN[0], curve.getStandardDeviation(tau), 1e-6*sdAndN[0]);
+		}
+	}
+	
+	@Test
+	public void testEnsembleMSDIsWeightedByPairCount() {
+		ArrayList<Track> tracks = simulateTracks(300, 40, 4);
+		tracks.addAll(simulateTracks(100, 15, 5));
+		int[] sizeClass = new int[tracks.size()];
+		for(int i = 0; i < tracks.size(); i++){
+			sizeClass[i] = i%3 - 1; //Class -1 is skipped
+		}
+		EnsembleMSD[] parallel = EnsembleMSD.compute(tracks, sizeClass, 2, false, 20, 4);
+		EnsembleMSD[] sequential = EnsembleMSD.compute(tracks, sizeClass, 2, false, 20, 1);
+		for(int k = 0; k < 2; k++){
+			for(int tau = 1; tau <= 20; tau++){
+				double sum = 0;
+				long n = 0;
+				int numberOfTracks = 0;
+				for(int i = 0; i < tracks.size(); i++){
+					if(sizeClass[i] != k){
+						continue;
+					}
+					double[] sdAndN = tracks.get(i).getMeanSquareDisplacementSD(0, 0, tau);
+					if(sdAndN[1] > 0){
+						sum += tracks.get(i).getMeanSquareDisplacement(0, 0, tau)*sdAndN[1];
+						n += (long)sdAndN[1];
+					}
+					numberOfTracks++;
+				}
+				assertEquals(numberOfTracks, parallel[k].getNumberOfTracks());
+				assertEquals(n, parallel[k].getN(tau));
+				assertEquals(sum/n, parallel[k].getMSD(tau), 1e-10*sum/n);
+				assertEquals(sequential[k].getMSD(tau), parallel[k].getMSD(tau), 1e-10*sum/n);
+			}
+		}
+	}
+
+	@Test
+	public void testKalmanFilterCorrectsDriftOfGappedTrack() {
+		AllTracks allTracks = AllTracks.getInstance();
+		allTracks.reset();
+		allTracks.setDriftWindow(0);
+		Track.setDiffusionCoefficientEstimator(new CovarianceEstimator());
+		//Random walk with a drift of 0.5 pixel per frame, a third of the detections is missing
+		Random r = new Random(2);
+		Track t = new Track(1);
+		allTracks.add(t);
+		double x = 100;
+		double y = 100;
+		for(int f = 1; f <= 2000; f++){
+			x += 0.5 + r.nextGaussian();
+			y += r.nextGaussian();
+			if(f == 1 || f == 2000 || r.nextDouble() > 1.0/3){
+				t.add((float)(x + 0.3*r.nextGaussian()), (float)(y + 0.3*r.nextGaussian()), 0, Float.NaN, f);
+			}
+		}
+		assertEquals(-0.5, allTracks.getDrift()[0], 0.1);
+		
+		//The filtered track is drift corrected. Indexing the drift by detection instead of frame would leave a 
+		//drift of about 0.5/3 pixel per frame.
+		Track[] filtered = {t.getKalmanFilteredTrack(0), new KalmanCovarianceEstimator().getKalmanFilteredTrack(t, 0)};
+		for (Track k : filtered) {
+			assertEquals(t.size(), k.size());
+			double residualDrift = (k.getX(k.size()-1) - k.getX(0))/1999;
+			assertEquals(0, residualDrift, 0.05);
+		}
+		allTracks.reset();
+	}
+
+}
@@ -0,0 +1,235 @@
+package de.biomedical_imaging.ij.nanotrackj.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.nanotrackj.StreamingWalkerEstimator;
+import de.biomedical_imaging.ij.nanotrackj.WalkerMethodEstimator;
+
+public class WalkerMethodEstimatorTest {
+
+	private static final double kB = 1.3806488* Math.pow(10, -19);  // [kg cm^2 s^-2 K^-1]
+	private static final double temp = 22 + 273.15;					// [K]
+	private static final double visk = 0.9548 * Math.pow(10, -5);	// [kg cm^-1 s^-1]
+	private static final double framerate = 30;						// [1/s]
+
+	/**
+	 * Simulates the mean squared displacements of a monodisperse suspension.
+	 * @return [i][0] = MSD in 10^-10 cm^2, [i][1] = Tracklength
+	 */
+	private double[][] simulateData(double diameterInNm, int numberOfTracks, int trackLength, long seed){
+		Random r = new Random(seed);
+		double D = kB*temp/(3*Math.PI*visk*diameterInNm*Math.pow(10, -7)); // [cm^2 / s]
+		double theta = 4*D/framerate;
+		double[][] data = new double[numberOfTracks][2];
+		for(int i = 0; i < numberOfTracks; i++){
+			double msd = 0;
+			for(int j = 0; j < trackLength; j++){
+				msd += -theta*Math.log(1-r.nextDouble());
+			}
+			data[i][0] = msd/trackLength * Math.pow(10, 10);
+			data[i][1] = trackLength;
+		}
+		return data;
+	}
+
+	private double getModeDiameter(double[][] dens){
+		int maxIndex = 0;
+		for(int i = 1; i < dens.length; i++){
+			if(dens[i][1] > dens[maxIndex][1]){
+				maxIndex = i;
+			}
+		}
+		return dens[maxIndex][0];
+	}
+
+	@Test
+	public void testEstimateMonodisperse() {
+		WalkerMethodEstimator walker = new WalkerMethodEstimator(simulateData(100, 300, 30, 1), temp, visk, framerate, 300);
+		double[][] dens = walker.estimate();
+		assertEquals(100, getModeDiameter(dens), 12);
+
+		double sum = 0;
+		for(int i = 0; i < dens.length; i++){
+			sum += dens[i][1];
+		}
+		assertEquals(1, sum, 1e-9);
+	}
+
+	@Test
+	public void testKernelOnTheFlyEqualsPrecomputedKernel() {
+		WalkerMethodEstimator precomputed = new WalkerMethodEstimator(simulateData(100, 200, 20, 2), temp, visk, framerate, 300);
+		WalkerMethodEstimator onTheFly = new WalkerMethodEstimator(simulateData(100, 200, 20, 2), temp, visk, framerate, 300);
+		onTheFly.setMaxKernelMemory(0);
+		double[][] densA = precomputed.estimate();
+		double[][] densB = onTheFly.estimate();
+		assertEquals(densA.length, densB.length);
+		for(int i = 0; i < densA.length; i++){
+			assertEquals(densA[i][1], densB[i][1], 1e-12);
+		}
+	}
+
+	@Test
+	public void testParallelEqualsSequential() {
+		WalkerMethodEstimator sequential = new WalkerMethodEstimator(simulateData(150, 1000, 15, 3), temp, visk, framerate, 400);
+		WalkerMethodEstimator parallel = new WalkerMethodEstimator(simulateData(150, 1000, 15, 3), temp, visk, framerate, 400);
+		sequential.setParallelism(1);
+		parallel.setParallelism(4);
+		double[][] densA = sequential.estimate();
+		double[][] densB = parallel.estimate();
+		for(int i = 0; i < densA.length; i++){
+			assertEquals(densA[i][1], densB[i][1], 1e-10*Math.max(densA[i][1], 1e-300));
+		}
+	}
+
+	@Test
+	public void testCompressedModeIsCloseToUncompressed() {
+		WalkerMethodEstimator uncompressed = new WalkerMethodEstimator(simulateData(120, 2000, 25, 4), temp, visk, framerate, 300);
+		WalkerMethodEstimator compressed = new WalkerMethodEstimator(simulateData(120, 2000, 25, 4), temp, visk, framerate, 300);
+		compressed.setCompression(0.01);
+		double[][] densA = uncompressed.estimate();
+		double[][] densB = compressed.estimate();
+		assertTrue(compressed.getNumberOfKernelRows() < 2000/4);
+		assertTrue(compressed.getCompressionError() <= 0.01);
+		double l1 = 0;
+		for(int i = 0; i < densA.length; i++){
+			l1 += Math.abs(densA[i][1]-densB[i][1]);
+		}
+		assertTrue("L1 distance " + l1, l1 < 0.05);
+	}
+
+	@Test
+	public void testAcceleratedConvergesToSameDensity() {
+		WalkerMethodEstimator plain = new WalkerMethodEstimator(simulateData(100, 500, 20, 5), temp, visk, framerate, 300);
+		WalkerMethodEstimator accelerated = new WalkerMethodEstimator(simulateData(100, 500, 20, 5), temp, visk, framerate, 300);
+		accelerated.setAcceleration(true);
+		double[][] densA = plain.estimate();
+		double[][] densB = accelerated.estimate();
+		assertEquals(getModeDiameter(densA), getModeDiameter(densB), 4);
+		
+		//Both stop on the relative change of chi-squared, thus the passes are compared at the same likelihood
+		double[][] plainTrace = plain.getConvergenceTrace();
+		double plainLogLik = plainTrace[plainTrace.length-1][3];
+		double[][] trace = accelerated.getConvergenceTrace();
+		int passesToPlainLogLik = Integer.MAX_VALUE;
+		for(int i = 1; i < trace.length && passesToPlainLogLik == Integer.MAX_VALUE; i++){
+			if(trace[i][3] >= plainLogLik){
+				passesToPlainLogLik = (int)trace[i][1];
+			}
+		}
+		assertTrue(passesToPlainLogLik < plain.getNumberOfKernelPasses());
+		assertEquals(accelerated.getNumberOfKernelPasses(), trace[trace.length-1][1], 0);
+		for(int i = 2; i < trace.length; i++){
+			assertTrue(trace[i][3] >= trace[i-1][3] - 1e-12);
+		}
+	}
+
+	@Test
+	public void testIterationBudget() {
+		WalkerMethodEstimator walker = new WalkerMethodEstimator(simulateData(100, 200, 20, 6), temp, visk, framerate, 300);
+		walker.setBudget(2, 0);
+		walker.estimate();
+		assertEquals(3, walker.getConvergenceTrace().length);
+		assertEquals(2, walker.getNumberOfKernelPasses());
+	}
+
+	@Test
+	public void testMultiResolutionFindsSameMode() {
+		WalkerMethodEstimator fixed = new WalkerMethodEstimator(simulateData(150, 500, 20, 7), temp, visk, framerate, 1000);
+		WalkerMethodEstimator multiRes = new WalkerMethodEstimator(simulateData(150, 500, 20, 7), temp, visk, framerate, 1000);
+		multiRes.setMultiResolution(true);
+		double[][] densA = fixed.estimate();
+		double[][] densB = multiRes.estimate();
+		assertEquals(densA.length, densB.length);
+		assertEquals(getModeDiameter(densA), getModeDiameter(densB), 8);
+		double sum = 0;
+		for(int i = 0; i < densB.length; i++){
+			sum += densB[i][1];
+		}
+		assertEquals(1, sum, 1e-9);
+	}
+
+	@Test
+	public void testStreamingEstimatorConverges() {
+		StreamingWalkerEstimator streaming = new StreamingWalkerEstimator(temp, visk, framerate, 300);
+		double[][] data = simulateData(100, 600, 20, 8);
+		double firstChange = Double.NaN;
+		for(int part = 0; part < 3; part++){
+			for(int i = part*200; i < (part+1)*200; i++){
+				streaming.addTrack(data[i][0], (int)data[i][1]);
+			}
+			streaming.update();
+			if(part == 0){
+				firstChange = streaming.getChange();
+			}else{
+				//Warm start: Adding more tracks of the same sample changes the density only slightly
+				assertTrue(streaming.getChange() < firstChange/5);
+			}
+		}
+		assertEquals(600, streaming.getNumberOfTracks());
+		assertEquals(100, streaming.getModeDiameter(), 12);
+	}
+	
+	@Test
+	public void testStreamingEstimatorFollowsPopulationShift() {
+		//The first tracks only contain small particles, the larger ones appear later in the stream
+		double[][] small = simulateData(60, 300, 20, 10);
+		double[][] large = simulateData(200, 600, 20, 11);
+		StreamingWalkerEstimator streaming = new StreamingWalkerEstimator(temp, visk, framerate, 400);
+		double[][] all = new double[small.length+large.length][];
+		for(int i = 0; i < all.length; i++){
+			all[i] = i < small.length ? small[i] : large[i-small.length];
+			streaming.addTrack(all[i][0], (int)all[i][1]);
+			if((i+1)%100 == 0){
+				streaming.update();
+			}
+		}
+		WalkerMethodEstimator batch = new WalkerMethodEstimator(all, temp, visk, framerate, 400);
+		double[][] densBatch = batch.estimate();
+		assertEquals(getModeDiameter(densBatch), streaming.getModeDiameter(), 8);
+		double[][] densStreaming = streaming.getDensity();
+		double largeBatch = 0;
+		double largeStreaming = 0;
+		for(int i = 0; i < densBatch.length; i++){
+			if(densBatch[i][0] > 130){
+				largeBatch += densBatch[i][1];
+				largeStreaming += densStreaming[i][1];
+			}
+		}
+		//Two thirds of the tracks belong to the large particles
+		assertEquals(largeBatch, largeStreaming, 0.1);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testStreamingEstimatorRejectsTooSmallMaximumDiameter() {
+		new StreamingWalkerEstimator(temp, visk, framerate, 0);
+	}
+	
+	@Test
+	public void testBootstrapBands() {
+		WalkerMethodEstimator sequential = new WalkerMethodEstimator(simulateData(100, 300, 20, 9), temp, visk, framerate, 300);
+		WalkerMethodEstimator parallel = new WalkerMethodEstimator(simulateData(100, 300, 20, 9), temp, visk, framerate, 300);
+		sequential.setParallelism(1);
+		parallel.setParallelism(4);
+		double[][] bandsA = sequential.estimateWithBootstrap(20, 0.9);
+		double[][] bandsB = parallel.estimateWithBootstrap(20, 0.9);
+		double maxDens = 0;
+		int mode = 0;
+		for(int i = 0; i < bandsA.length; i++){
+			assertTrue(bandsA[i][2] <= bandsA[i][3]);
+			//Replicates are seeded individually, thus the bands do not depend on the number of threads
+			assertEquals(bandsA[i][2], bandsB[i][2], 1e-8*bandsA[i][2]);
+			assertEquals(bandsA[i][3], bandsB[i][3], 1e-8*bandsA[i][3]);
+			if(bandsA[i][1] > maxDens){
+				maxDens = bandsA[i][1];
+				mode = i;
+			}
+		}
+		assertTrue(bandsA[mode][3] > 0);
+		assertTrue(bandsA[mode][2] < bandsA[mode][3]);
+	}
+
+}